@@ -0,0 +1,52 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author clj
+ * 基准测试入口: 依次以1、4、16个线程运行全部(或指定的)基准, 同时输出GC profiler的分配数据.
+ *
+ * <p>运行: mvn -Pjmh compile exec:exec
+ * <br>只运行部分基准: mvn -Pjmh compile exec:exec -Djmh.args="PatternLayoutBenchmark 1,4"
+ *
+ * <p>每种线程数的结果另存为target/jmh-result-{线程数}t.json, 便于对比前后两次的结果.
+ */
+public class BenchmarkRunner {
+
+    private static final int[] DEFAULT_THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*Benchmark";
+        int[] threads = args.length > 1 ? parseThreads(args[1]) : DEFAULT_THREADS;
+
+        for (int t : threads) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(t)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .measurementIterations(5)
+                    .addProfiler(GCProfiler.class)
+                    // 不读取classpath中的log4j.properties, 各基准自己配置appender
+                    .jvmArgsAppend("-Dlog4j.defaultInitOverride=true")
+                    .result("target/jmh-result-" + t + "t.json")
+                    .resultFormat(ResultFormatType.JSON)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    private static int[] parseThreads(String value) {
+        String[] parts = value.split(",");
+        int[] threads = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            threads[i] = Integer.parseInt(parts[i].trim());
+        }
+        return threads;
+    }
+}
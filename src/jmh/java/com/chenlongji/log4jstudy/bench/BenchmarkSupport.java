@@ -0,0 +1,85 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.AppenderSkeleton1;
+import org.apache.log4j.Hierarchy1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RootLogger1;
+
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * @author clj
+ * 各基准共用的配置和工具类
+ */
+final class BenchmarkSupport {
+
+    /**
+     * 与log4j.properties中rollingFile的conversionPattern相同(properties中的"\:"即":")
+     */
+    static final String PRODUCTION_PATTERN = "%d [%t] %-5p [%c:%L] - tid=%X{traceId}, %m%n";
+
+    static final String LOGGER_NAME = "com.chenlongji.log4jstudy.service.order.OrderService";
+
+    static final String MESSAGE = "order created, orderId=20230415000123, userId=10086";
+
+    static final String TRACE_ID = "3f2b8c1d9e7a4b6c8d0e1f2a3b4c5d6e";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 独立的logger hierarchy, 不受LogManager默认配置的影响
+     */
+    static Hierarchy1 newHierarchy(Level rootLevel) {
+        return new Hierarchy1(new RootLogger1(rootLevel));
+    }
+
+    static LoggingEvent newEvent(Logger logger, Level level, Object message) {
+        return new LoggingEvent(BenchmarkSupport.class.getName(), logger, level, message, null);
+    }
+
+    /**
+     * tmpfs中的日志文件, 没有/dev/shm时退化为临时目录
+     */
+    static File tmpfsFile(String name) {
+        File shm = new File("/dev/shm");
+        File dir = shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        return new File(dir, name);
+    }
+
+    /**
+     * 丢弃所有写入内容的输出流, 用来单独衡量编码和appender本身的开销
+     */
+    static final class NullOutputStream extends OutputStream {
+
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * 什么都不做的appender, 用来单独衡量分发和过滤器链的开销
+     */
+    static final class NoopAppender extends AppenderSkeleton1 {
+
+        NoopAppender(String name) {
+            setName(name);
+        }
+
+        protected void append(LoggingEvent event) {
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.AppenderSkeleton1;
+import org.apache.log4j.BinaryFileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PatternLayout1;
+import org.apache.log4j.WriterAppender1;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 同一个事件写入tmpfs文件的开销: 文本(WriterAppender1 + 生产环境的PatternLayout1)与二进制(BinaryFileAppender).
+ *
+ * <p>两者都不每条flush, 只衡量格式化/编码和写出本身. 二进制格式记录调用位置, 与pattern中的%L对应.
+ * 每个线程使用自己的appender和文件(文件名带线程序号), 线程之间不共享锁和文件.
+ * tearDown时打印每个线程的文件中每条日志平均占用的字节数.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BinaryFileAppenderBenchmark {
+
+    @Param({"text", "binary"})
+    public String format;
+
+    private AppenderSkeleton1 appender;
+    private LoggingEvent event;
+    private File file;
+    private long count;
+
+    @Setup
+    public void setup(ThreadParams threadParams) throws IOException {
+        int thread = threadParams.getThreadIndex();
+        MDC.put("traceId", BenchmarkSupport.TRACE_ID);
+        if ("binary".equals(format)) {
+            file = BenchmarkSupport.tmpfsFile("log4jstudy-bench-" + thread + ".bin");
+            BinaryFileAppender binary = new BinaryFileAppender();
+            binary.setFile(file.getPath());
+            binary.setAppend(false);
+            binary.setImmediateFlush(false);
+            binary.setLocationInfo(true);
+            binary.activateOptions();
+            appender = binary;
+        } else {
+            file = BenchmarkSupport.tmpfsFile("log4jstudy-bench-" + thread + ".log");
+            WriterAppender1 text = new WriterAppender1(new PatternLayout1(BenchmarkSupport.PRODUCTION_PATTERN),
+                    new FileOutputStream(file));
+            text.setImmediateFlush(false);
+            appender = text;
+        }
+        appender.setName(format);
+        event = BenchmarkSupport.newEvent(
+                BenchmarkSupport.newHierarchy(Level.INFO).getLogger(BenchmarkSupport.LOGGER_NAME),
+                Level.INFO, BenchmarkSupport.MESSAGE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.close();
+        if (count > 0) {
+            System.out.println(format + " " + file.getName() + ": " + (file.length() / count) + " bytes/event");
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public void doAppend() {
+        appender.doAppend(event);
+        count++;
+    }
+}
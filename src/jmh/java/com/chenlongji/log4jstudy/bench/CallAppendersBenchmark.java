@@ -0,0 +1,49 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Hierarchy1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * Category.callAppenders把事件分发到本logger及父logger上的appender的开销.
+ * appenders个空appender分别挂在当前logger和根logger上(additivity=true), 排除appender自身的开销.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CallAppendersBenchmark {
+
+    @Param({"1", "4"})
+    public int appenders;
+
+    private Logger logger;
+    private LoggingEvent event;
+
+    @Setup
+    public void setup() {
+        Hierarchy1 hierarchy = BenchmarkSupport.newHierarchy(Level.INFO);
+        logger = hierarchy.getLogger(BenchmarkSupport.LOGGER_NAME);
+        for (int i = 0; i < appenders; i++) {
+            logger.addAppender(new BenchmarkSupport.NoopAppender("logger-" + i));
+            hierarchy.getRootLogger().addAppender(new BenchmarkSupport.NoopAppender("root-" + i));
+        }
+        event = BenchmarkSupport.newEvent(logger, Level.INFO, BenchmarkSupport.MESSAGE);
+    }
+
+    @Benchmark
+    public void callAppenders() {
+        logger.callAppenders(event);
+    }
+}
@@ -0,0 +1,58 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.varia.LevelRangeFilter;
+import org.apache.log4j.varia.StringMatchFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * AppenderSkeleton1.doAppend的开销: threshold判断、加锁以及遍历filters个过滤器(全部返回NEUTRAL).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DoAppendBenchmark {
+
+    @Param({"0", "1", "4"})
+    public int filters;
+
+    private BenchmarkSupport.NoopAppender appender;
+    private LoggingEvent event;
+
+    @Setup
+    public void setup() {
+        appender = new BenchmarkSupport.NoopAppender("noop");
+        appender.setThreshold(Level.INFO);
+        for (int i = 0; i < filters; i++) {
+            if (i % 2 == 0) {
+                LevelRangeFilter f = new LevelRangeFilter();
+                f.setLevelMin(Level.DEBUG);
+                f.setAcceptOnMatch(false);
+                appender.addFilter(f);
+            } else {
+                StringMatchFilter f = new StringMatchFilter();
+                f.setStringToMatch("no-such-text-" + i);
+                appender.addFilter(f);
+            }
+        }
+        event = BenchmarkSupport.newEvent(
+                BenchmarkSupport.newHierarchy(Level.INFO).getLogger(BenchmarkSupport.LOGGER_NAME),
+                Level.INFO, BenchmarkSupport.MESSAGE);
+    }
+
+    @Benchmark
+    public void doAppend() {
+        appender.doAppend(event);
+    }
+}
@@ -0,0 +1,66 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Hierarchy1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PatternLayout1;
+import org.apache.log4j.WriterAppender1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 从logger.info到appender写出的完整流程: 级别判断、创建事件、callAppenders、doAppend、格式化(含%L)和编码.
+ * 根logger挂一个输出到空流的WriterAppender1, 使用生产环境的pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EndToEndBenchmark {
+
+    private Logger logger;
+    private WriterAppender1 appender;
+
+    @State(Scope.Thread)
+    public static class ThreadContext {
+
+        @Setup
+        public void setup() {
+            MDC.put("traceId", BenchmarkSupport.TRACE_ID);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Hierarchy1 hierarchy = BenchmarkSupport.newHierarchy(Level.INFO);
+        appender = new WriterAppender1(new PatternLayout1(BenchmarkSupport.PRODUCTION_PATTERN),
+                new BenchmarkSupport.NullOutputStream());
+        appender.setName("e2e");
+        hierarchy.getRootLogger().addAppender(appender);
+        logger = hierarchy.getLogger(BenchmarkSupport.LOGGER_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.close();
+    }
+
+    @Benchmark
+    public void info(ThreadContext context) {
+        logger.info(BenchmarkSupport.MESSAGE);
+    }
+
+    @Benchmark
+    public void debugDisabled(ThreadContext context) {
+        logger.debug(BenchmarkSupport.MESSAGE);
+    }
+}
@@ -0,0 +1,72 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Hierarchy;
+import org.apache.log4j.Hierarchy1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.RootLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 多线程getLogger的开销对比: log4j自带的Hierarchy(Hashtable + synchronized) 与 Hierarchy1(ConcurrentHashMap, 读取不加锁).
+ *
+ * <p>模拟每次请求都调用Logger.getLogger(getClass())的场景: logger都已存在, 各线程反复按名称获取.
+ * 线程数由BenchmarkRunner指定.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetLoggerBenchmark {
+
+    private static final int LOGGER_COUNT = 512;
+
+    private String[] names;
+    private Hierarchy hierarchy;
+    private Hierarchy1 hierarchy1;
+
+    @Setup
+    public void setup() {
+        names = new String[LOGGER_COUNT];
+        for (int i = 0; i < LOGGER_COUNT; i++) {
+            names[i] = "com.chenlongji.log4jstudy.module" + (i % 16) + ".service.Service" + i;
+        }
+        hierarchy = new Hierarchy(new RootLogger(Level.DEBUG));
+        hierarchy1 = BenchmarkSupport.newHierarchy(Level.DEBUG);
+        // 预先创建全部logger, 基准只衡量获取已存在的logger
+        for (int i = 0; i < LOGGER_COUNT; i++) {
+            hierarchy.getLogger(names[i]);
+            hierarchy1.getLogger(names[i]);
+        }
+    }
+
+    /**
+     * 每个线程各自轮流获取不同名称的logger
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        String nextName(String[] names) {
+            return names[next++ & (LOGGER_COUNT - 1)];
+        }
+    }
+
+    @Benchmark
+    public Logger hierarchy(Cursor cursor) {
+        return hierarchy.getLogger(cursor.nextName(names));
+    }
+
+    @Benchmark
+    public Logger hierarchy1(Cursor cursor) {
+        return hierarchy1.getLogger(cursor.nextName(names));
+    }
+}
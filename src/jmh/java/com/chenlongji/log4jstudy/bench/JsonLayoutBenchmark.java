@@ -0,0 +1,66 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.JsonStreamLayout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PatternLayout1;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 同一个事件分别用生产环境的PatternLayout1和JsonStreamLayout格式化的开销.
+ *
+ * <p>两者输出的内容相同(时间、线程、级别、logger、调用位置、traceId、消息);
+ * 事件复用, 调用位置只在第一次计算, 只比较格式化本身.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonLayoutBenchmark {
+
+    private PatternLayout1 patternLayout;
+    private JsonStreamLayout jsonLayout;
+    private LoggingEvent event;
+    private final StringBuilder sb = new StringBuilder(512);
+
+    @Setup
+    public void setup() {
+        MDC.put("traceId", BenchmarkSupport.TRACE_ID);
+        patternLayout = new PatternLayout1(BenchmarkSupport.PRODUCTION_PATTERN);
+        jsonLayout = new JsonStreamLayout();
+        jsonLayout.setDateFormat("ISO8601");
+        jsonLayout.setLocationInfo(true);
+        jsonLayout.activateOptions();
+        Logger logger = BenchmarkSupport.newHierarchy(Level.INFO).getLogger(BenchmarkSupport.LOGGER_NAME);
+        event = BenchmarkSupport.newEvent(logger, Level.INFO, BenchmarkSupport.MESSAGE);
+    }
+
+    @Benchmark
+    public StringBuilder patternLayout() {
+        sb.setLength(0);
+        patternLayout.format(sb, event);
+        return sb;
+    }
+
+    @Benchmark
+    public StringBuilder jsonLayout() {
+        sb.setLength(0);
+        jsonLayout.format(sb, event);
+        return sb;
+    }
+
+    @Benchmark
+    public String jsonLayoutToString() {
+        return jsonLayout.format(event);
+    }
+}
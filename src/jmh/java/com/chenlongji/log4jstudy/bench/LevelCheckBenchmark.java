@@ -0,0 +1,51 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Hierarchy1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 被过滤掉的日志调用的开销: 根logger级别为INFO, 在较深的logger上调用debug.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LevelCheckBenchmark {
+
+    private Logger logger;
+
+    @Setup
+    public void setup() {
+        Hierarchy1 hierarchy = BenchmarkSupport.newHierarchy(Level.INFO);
+        logger = hierarchy.getLogger(BenchmarkSupport.LOGGER_NAME);
+        // 中间节点也创建出来, 使getEffectiveLevel需要逐级向上查找
+        hierarchy.getLogger("com.chenlongji.log4jstudy.service.order");
+        hierarchy.getLogger("com.chenlongji.log4jstudy.service");
+        hierarchy.getLogger("com.chenlongji.log4jstudy");
+    }
+
+    @Benchmark
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    @Benchmark
+    public boolean isEnabledFor() {
+        return logger.isEnabledFor(Level.DEBUG);
+    }
+
+    @Benchmark
+    public void debugDisabled() {
+        logger.debug(BenchmarkSupport.MESSAGE);
+    }
+}
@@ -0,0 +1,81 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.PatternLayout1;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 使用生产环境的pattern格式化一条日志的开销.
+ *
+ * <p>*CachedLocation: 复用同一个事件, 调用位置(%L)只在第一次计算;
+ * *NewEvent: 每次创建新事件, 包含获取调用位置的开销, 与线上每条日志的实际情况一致;
+ * compiled*: 开启Compiled选项, 使用组合后的格式化器代替遍历转换器链.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PatternLayoutBenchmark {
+
+    private PatternLayout1 layout1;
+    private PatternLayout1 compiledLayout1;
+    private PatternLayout layout;
+    private Logger logger;
+    private LoggingEvent event;
+    private final StringBuilder sb = new StringBuilder(256);
+
+    @Setup
+    public void setup() {
+        // 每个线程一个State, MDC是线程本地的, 在这里为当前线程设置
+        MDC.put("traceId", BenchmarkSupport.TRACE_ID);
+        layout1 = new PatternLayout1(BenchmarkSupport.PRODUCTION_PATTERN);
+        compiledLayout1 = new PatternLayout1(BenchmarkSupport.PRODUCTION_PATTERN);
+        compiledLayout1.setCompiled(true);
+        layout = new PatternLayout(BenchmarkSupport.PRODUCTION_PATTERN);
+        logger = BenchmarkSupport.newHierarchy(Level.INFO).getLogger(BenchmarkSupport.LOGGER_NAME);
+        event = BenchmarkSupport.newEvent(logger, Level.INFO, BenchmarkSupport.MESSAGE);
+    }
+
+    @Benchmark
+    public String log4jPatternLayoutCachedLocation() {
+        return layout.format(event);
+    }
+
+    @Benchmark
+    public String formatCachedLocation() {
+        return layout1.format(event);
+    }
+
+    @Benchmark
+    public StringBuilder formatToBuilderCachedLocation() {
+        sb.setLength(0);
+        layout1.format(sb, event);
+        return sb;
+    }
+
+    @Benchmark
+    public StringBuilder compiledFormatToBuilderCachedLocation() {
+        sb.setLength(0);
+        compiledLayout1.format(sb, event);
+        return sb;
+    }
+
+    @Benchmark
+    public StringBuilder formatToBuilderNewEvent() {
+        sb.setLength(0);
+        layout1.format(sb, BenchmarkSupport.newEvent(logger, Level.INFO, BenchmarkSupport.MESSAGE));
+        return sb;
+    }
+}
@@ -0,0 +1,74 @@
+package com.chenlongji.log4jstudy.bench;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PatternLayout1;
+import org.apache.log4j.WriterAppender1;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * WriterAppender1格式化、编码并写出一条日志的开销. 所有线程共用同一个appender.
+ *
+ * <p>target=null: 写入丢弃数据的流, 只衡量格式化和编码; target=tmpfs: 写入/dev/shm中的文件, 每条日志flush一次.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriterAppenderBenchmark {
+
+    @Param({"null", "tmpfs"})
+    public String target;
+
+    private WriterAppender1 appender;
+    private LoggingEvent event;
+    private File file;
+
+    @Setup
+    public void setup() throws FileNotFoundException {
+        OutputStream os;
+        if ("tmpfs".equals(target)) {
+            file = BenchmarkSupport.tmpfsFile("log4jstudy-bench.log");
+            os = new FileOutputStream(file);
+        } else {
+            os = new BenchmarkSupport.NullOutputStream();
+        }
+        appender = new WriterAppender1(new PatternLayout1(BenchmarkSupport.PRODUCTION_PATTERN), os);
+        appender.setName("writer");
+        event = BenchmarkSupport.newEvent(
+                BenchmarkSupport.newHierarchy(Level.INFO).getLogger(BenchmarkSupport.LOGGER_NAME),
+                Level.INFO, BenchmarkSupport.MESSAGE);
+        MDC.put("traceId", BenchmarkSupport.TRACE_ID);
+        // 提前固定MDC和调用位置, 各线程共用同一个事件
+        event.getMDCCopy();
+        event.getLocationInformation();
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.close();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void doAppend() {
+        appender.doAppend(event);
+    }
+}
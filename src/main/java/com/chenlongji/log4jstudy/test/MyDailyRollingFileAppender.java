@@ -3,20 +3,34 @@ package com.chenlongji.log4jstudy.test;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Layout;
 import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.helpers.QuietWriter;
 import org.apache.log4j.spi.LoggingEvent;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
-import java.text.ParseException;
+import java.nio.file.StandardCopyOption;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author clj
- * 自定义的DailyRollingFileAppender, 用于自动删除过期的日志
+ * 自定义的DailyRollingFileAppender, 用于自动删除过期的日志.
+ * 滚动时日志线程只切换活动文件, 关闭旧文件、压缩(compress)和删除过期文件由后台线程完成
  */
 public class MyDailyRollingFileAppender extends FileAppender {
 
@@ -36,6 +50,39 @@ public class MyDailyRollingFileAppender extends FileAppender {
      */
     private int maxBackupIndex = 60;
 
+    static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * 关闭时等待后台滚动任务完成的最长时间(毫秒)
+     */
+    private static final long ROLLOVER_TIMEOUT = 30 * 1000;
+
+    /**
+     * 是否gzip压缩滚动出的文件, 默认值false
+     */
+    private boolean compress = false;
+
+    /**
+     * 备份文件的总大小上限(字节), 0表示不限制
+     */
+    private long maxTotalSize = 0;
+
+    /**
+     * 备份文件的最长保留时间(毫秒), 0表示不限制
+     */
+    private long maxBackupAge = 0;
+
+    /**
+     * 已有的备份文件, 从旧到新排列. 在activateOptions中扫描一次目录得到, 之后只由后台线程修改
+     */
+    private final ArrayDeque backups = new ArrayDeque();
+    private long backupsTotalSize;
+
+    /**
+     * 执行关闭旧文件、压缩、清理的后台线程
+     */
+    private ExecutorService rolloverExecutor;
+
 
   /**
      The date pattern. By default, the pattern is set to
@@ -119,6 +166,74 @@ public class MyDailyRollingFileAppender extends FileAppender {
         return maxBackupIndex;
     }
 
+    /**
+     * 备份文件的总大小上限, 超过时从最旧的备份开始删除. 后缀可以为KB,MB,GB, 默认不限制
+     */
+    public void setMaxTotalSize(String value) {
+        maxTotalSize = OptionConverter.toFileSize(value, 0);
+    }
+
+    public long getMaximumTotalSize() {
+        return maxTotalSize;
+    }
+
+    public void setMaximumTotalSize(long maxTotalSize) {
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    /**
+     * 备份文件的最长保留时间(按文件名中的日期计算), 超过的备份会被删除.
+     * 格式为数字加单位, 单位可以为m(分钟), h(小时), d(天), 不写单位时为天, 例如30d、12h. 默认不限制
+     */
+    public void setMaxBackupAge(String value) {
+        maxBackupAge = toMillis(value);
+    }
+
+    /**
+     * 备份文件的最长保留时间, 单位毫秒
+     */
+    public long getMaximumBackupAge() {
+        return maxBackupAge;
+    }
+
+    public void setMaximumBackupAge(long maxBackupAge) {
+        this.maxBackupAge = maxBackupAge;
+    }
+
+    static long toMillis(String value) {
+        if (value == null) {
+            return 0;
+        }
+        String s = value.trim().toLowerCase();
+        long unit = 24L * 60 * 60 * 1000;
+        if (s.endsWith("m")) {
+            unit = 60L * 1000;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("h")) {
+            unit = 60L * 60 * 1000;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("d")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            return Long.parseLong(s.trim()) * unit;
+        } catch (NumberFormatException e) {
+            LogLog.error("[" + value + "] is not in proper age format.", e);
+            return 0;
+        }
+    }
+
+    /**
+     * 是否在后台gzip压缩滚动出的文件(压缩后为 文件名.日期.gz), 默认值false
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public boolean getCompress() {
+        return compress;
+    }
+
   @Override
   public void activateOptions() {
     super.activateOptions();
@@ -130,6 +245,7 @@ public class MyDailyRollingFileAppender extends FileAppender {
       rc.setType(type);
       File file = new File(fileName);
       scheduledFilename = fileName+sdf.format(new Date(file.lastModified()));
+      seedBackups(file);
 
     } else {
       LogLog.error("Either File or DatePattern options are not set for appender ["
@@ -200,6 +316,10 @@ public class MyDailyRollingFileAppender extends FileAppender {
 
   /**
      Rollover the current file to a new file.
+
+     <p>日志线程中只做切换活动文件: 先把当前文件改名(改名只是一次元数据操作, 打开的流仍可写入),
+     再打开新文件继续写入; 关闭旧的流、压缩和清理过期文件都交给后台线程.
+     无法改名正在写入的文件时(如Windows), 先关闭旧的流再改名.
   */
   void rollOver() throws IOException {
 
@@ -217,36 +337,146 @@ public class MyDailyRollingFileAppender extends FileAppender {
       return;
     }
 
-    // close current file, and rename it to datedFilename
-    this.closeFile();
-
-    File target  = new File(scheduledFilename);
-    if (target.exists()) {
-      target.delete();
+    // 取下当前的流, 不关闭, 改名后由后台线程关闭
+    QuietWriter old = this.qw;
+    this.qw = null;
+    if (old != null) {
+      old.flush();
     }
 
     File file = new File(fileName);
-    boolean result = file.renameTo(target);
+    File target = new File(scheduledFilename);
+    boolean result = rename(file, target);
+    if (!result && old != null) {
+      closeQuietly(old);
+      old = null;
+      result = rename(file, target);
+    }
     if(result) {
       LogLog.debug(fileName +" -> "+ scheduledFilename);
     } else {
       LogLog.error("Failed to rename ["+fileName+"] to ["+scheduledFilename+"].");
     }
 
-    // 删除文件
-    removeFiles(file);
-
     try {
-      // This will also close the file. This is OK since multiple
-      // close operations are safe.
       this.setFile(fileName, true, this.bufferedIO, this.bufferSize);
     }
     catch(IOException e) {
       errorHandler.error("setFile("+fileName+", true) call failed.");
     }
     scheduledFilename = datedFilename;
+
+    submitRolloverTask(old, result ? target : null, file);
   }
 
+    /**
+     * 把文件改名为target, target已存在时覆盖
+     */
+    private static boolean rename(File file, File target) {
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            LogLog.debug("Could not rename [" + file + "] to [" + target + "].", e);
+            return false;
+        }
+    }
+
+    private static void closeQuietly(QuietWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LogLog.error("Could not close " + writer, e);
+        }
+    }
+
+    /**
+     * 在后台线程中关闭旧的流、压缩刚滚动出的文件、清理过期文件. 任务按提交顺序依次执行
+     */
+    private void submitRolloverTask(final QuietWriter old, final File rolled, final File file) {
+        Runnable task = new Runnable() {
+            public void run() {
+                if (old != null) {
+                    closeQuietly(old);
+                }
+                File backup = rolled;
+                if (backup != null && compress) {
+                    backup = compress(backup);
+                }
+                retainBackups(backup, file);
+            }
+        };
+        try {
+            rolloverExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            // appender已关闭, 直接在当前线程执行
+            task.run();
+        }
+    }
+
+    private synchronized ExecutorService rolloverExecutor() {
+        if (rolloverExecutor == null) {
+            rolloverExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MyDailyRollingFileAppender-" + name + "-rollover");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return rolloverExecutor;
+    }
+
+    /**
+     * 把file压缩为file.gz, 成功后删除file. 先写入临时文件, 压缩中途退出不会留下不完整的.gz文件.
+     * 返回压缩后的文件, 压缩失败时返回原文件
+     */
+    private File compress(File file) {
+        File gz = new File(file.getPath() + GZIP_SUFFIX);
+        File tmp = new File(gz.getPath() + ".tmp");
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024);
+                try {
+                    byte[] buf = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        out.write(buf, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            Files.move(tmp.toPath(), gz.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(file.toPath());
+            LogLog.debug(file + " -> " + gz);
+            return gz;
+        } catch (IOException e) {
+            tmp.delete();
+            LogLog.error("Failed to compress [" + file + "].", e);
+            return file;
+        }
+    }
+
+    /**
+     * 关闭appender后等待后台的滚动任务完成
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (rolloverExecutor != null) {
+            rolloverExecutor.shutdown();
+            try {
+                rolloverExecutor.awaitTermination(ROLLOVER_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
    * This method differentiates MyDailyRollingFileAppender from its
    * super class.
@@ -275,39 +505,110 @@ public class MyDailyRollingFileAppender extends FileAppender {
    }
 
     /**
-     * 删除文件
+     * 启动时扫描一次日志目录, 按文件名中的日期从旧到新记录已有的备份文件, 之后只在滚动时增删
      */
-    private void removeFiles(File file) {
-        //获取日志文件列表，控制数量，实现清理策略
-        try{
-            if (file.getParentFile().exists()){
-                File[] files = file.getParentFile().listFiles(new LogFileFilter(file.getName()));
-                if (files == null) {
-                    return;
-                }
-                Long[] dateArray = new Long[files.length];
-                for (int i = 0; i < files.length; i++) {
-                    File fileItem = files[i];
-                    String fileDateStr = fileItem.getName().replace(file.getName(), "");
-                    try {
-                        Date fileDate = sdf.parse(fileDateStr);
-                        long fileDateLong = fileDate.getTime();
-                        dateArray[i] = fileDateLong;
-                    } catch (ParseException e) {
-                        LogLog.error("Parse File Date Throw Exception : " + e.getMessage());
-                    }
-                }
-                Arrays.sort(dateArray);
-                if (dateArray.length > maxBackupIndex) {
-                    for (int i = 0; i < dateArray.length - maxBackupIndex; i++) {
-                        String dateFileName = file.getPath() + sdf.format(dateArray[i]);
-                        File dateFile = new File(dateFileName);
-                        Files.delete(dateFile.toPath());
-                    }
+    private void seedBackups(File file) {
+        backups.clear();
+        backupsTotalSize = 0;
+        File dir = file.getAbsoluteFile().getParentFile();
+        File[] files = dir == null ? null : dir.listFiles(new LogFileFilter(file.getName()));
+        if (files == null) {
+            return;
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat(datePattern);
+        List found = new ArrayList(files.length);
+        for (int i = 0; i < files.length; i++) {
+            long time = parseBackupTime(sdf, file.getName(), files[i].getName());
+            // 当前文件、压缩的临时文件等无法解析日期的文件不是备份文件
+            if (time >= 0) {
+                found.add(new Backup(files[i], time));
+            }
+        }
+        Collections.sort(found);
+        for (int i = 0; i < found.size(); i++) {
+            Backup backup = (Backup) found.get(i);
+            backups.addLast(backup);
+            backupsTotalSize += backup.size;
+        }
+        LogLog.debug("Appender [" + name + "] found " + backups.size() + " backup files.");
+    }
+
+    /**
+     * 从备份文件名(文件名 + 日期 [+ .gz])中解析出日期, 不是备份文件时返回-1
+     */
+    private static long parseBackupTime(SimpleDateFormat sdf, String logName, String backupName) {
+        if (!backupName.startsWith(logName)) {
+            return -1;
+        }
+        String dateStr = backupName.substring(logName.length());
+        if (dateStr.endsWith(GZIP_SUFFIX)) {
+            dateStr = dateStr.substring(0, dateStr.length() - GZIP_SUFFIX.length());
+        }
+        ParsePosition pos = new ParsePosition(0);
+        Date date = sdf.parse(dateStr, pos);
+        if (date == null || pos.getIndex() != dateStr.length()) {
+            return -1;
+        }
+        return date.getTime();
+    }
+
+    /**
+     * 记录刚滚动出的备份文件, 再从最旧的备份开始删除, 直到数量、总大小、保留时间都满足要求.
+     * 在后台线程中执行, 每次滚动只处理新增和被删除的文件
+     */
+    private void retainBackups(File rolled, File file) {
+        if (rolled != null) {
+            long time = parseBackupTime(new SimpleDateFormat(datePattern), file.getName(), rolled.getName());
+            if (time >= 0) {
+                Backup last = (Backup) backups.peekLast();
+                // 同一时间段的文件被覆盖(如在同一时间段内重启), 替换原来的记录
+                if (last != null && last.time == time) {
+                    backups.removeLast();
+                    backupsTotalSize -= last.size;
                 }
+                Backup backup = new Backup(rolled, time);
+                backups.addLast(backup);
+                backupsTotalSize += backup.size;
+            }
+        }
+
+        long oldest = maxBackupAge > 0 ? System.currentTimeMillis() - maxBackupAge : Long.MIN_VALUE;
+        while (!backups.isEmpty()) {
+            Backup head = (Backup) backups.peekFirst();
+            boolean evict = backups.size() > maxBackupIndex
+                    || (maxTotalSize > 0 && backupsTotalSize > maxTotalSize)
+                    || head.time < oldest;
+            if (!evict) {
+                break;
+            }
+            backups.removeFirst();
+            backupsTotalSize -= head.size;
+            try {
+                Files.deleteIfExists(head.file.toPath());
+                LogLog.debug("Deleted backup file [" + head.file + "].");
+            } catch (IOException e) {
+                LogLog.error("Failed to delete backup file [" + head.file + "].", e);
             }
-        } catch (Exception e){
-            errorHandler.error("removeFiles failed." + e.getMessage());
+        }
+    }
+
+    /**
+     * 备份文件, 按文件名中的日期排序
+     */
+    private static final class Backup implements Comparable {
+        final File file;
+        final long time;
+        final long size;
+
+        Backup(File file, long time) {
+            this.file = file;
+            this.time = time;
+            this.size = file.length();
+        }
+
+        public int compareTo(Object o) {
+            long other = ((Backup) o).time;
+            return time < other ? -1 : (time == other ? 0 : 1);
         }
     }
 
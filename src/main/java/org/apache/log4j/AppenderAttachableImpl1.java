@@ -21,57 +21,75 @@ import org.apache.log4j.spi.AppenderAttachable;
 import org.apache.log4j.spi.LoggingEvent;
 
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.NoSuchElementException;
 
 /**
  * A straightforward implementation of the {@link AppenderAttachable}
  * interface.
  *
+ * <p>appender列表采用写时复制(copy-on-write)的数组: 添加/删除appender时加锁并替换整个数组,
+ * 分发日志事件时只读取一次volatile数组引用, 之后都是普通的数组读取, 不加锁.
+ * 适用于appender极少变更而日志事件持续分发的场景.
+ *
  * @author Ceki G&uuml;lc&uuml;
  * @since version 0.9.1
  */
 public class AppenderAttachableImpl1 implements AppenderAttachable {
 
+    private static final Appender[] NO_APPENDERS = new Appender[0];
+
     /**
-     * Array of appenders.
+     * Array of appenders. 数组创建后不再修改, 变更时整体替换.
      */
-    protected Vector appenderList;
+    protected volatile Appender[] appenderList = NO_APPENDERS;
 
     /**
      * Attach an appender. If the appender is already in the list in
      * won't be added again.
      */
-    public void addAppender(Appender newAppender) {
+    public synchronized void addAppender(Appender newAppender) {
         // Null values for newAppender parameter are strictly forbidden.
         if (newAppender == null)
             return;
 
-        if (appenderList == null) {
-            appenderList = new Vector(1);
-        }
-        if (!appenderList.contains(newAppender))
-            appenderList.addElement(newAppender);
+        Appender[] appenders = appenderList;
+        if (indexOf(appenders, newAppender) >= 0)
+            return;
+        Appender[] copy = new Appender[appenders.length + 1];
+        System.arraycopy(appenders, 0, copy, 0, appenders.length);
+        copy[appenders.length] = newAppender;
+        appenderList = copy;
     }
 
     /**
      * Call the <code>doAppend</code> method on all attached appenders.
      */
     public int appendLoopOnAppenders(LoggingEvent event) {
-        // 记录当前appender个数返回
-        int size = 0;
-        Appender appender;
-
-        if (appenderList != null) {
-            size = appenderList.size();
-            // 核心代码: 遍历执行每个appender的doAppend()方法
-            for (int i = 0; i < size; i++) {
-                appender = (Appender) appenderList.elementAt(i);
-                appender.doAppend(event);
+        // 只读取一次数组引用, 遍历过程中即使有appender被移除也不受影响
+        Appender[] appenders = appenderList;
+        Level level = event.getLevel();
+        // 核心代码: 遍历执行每个appender的doAppend()方法
+        for (int i = 0; i < appenders.length; i++) {
+            Appender appender = appenders[i];
+            // threshold不接受该级别的appender(AppenderSkeleton1或log4j自带的AppenderSkeleton)直接跳过, 不进入其同步的doAppend
+            if (appender instanceof AppenderSkeleton1 && !((AppenderSkeleton1) appender).isAsSevereAsThreshold(level)) {
+                continue;
             }
+            if (appender instanceof AppenderSkeleton && !((AppenderSkeleton) appender).isAsSevereAsThreshold(level)) {
+                continue;
+            }
+            appender.doAppend(event);
         }
-        return size;
+        // 记录当前appender个数返回
+        return appenders.length;
     }
 
+    /**
+     * 返回当前的appender数组快照, 不产生任何对象分配. 调用方不能修改返回的数组.
+     */
+    public Appender[] getAppenderArray() {
+        return appenderList;
+    }
 
     /**
      * Get all attached appenders as an Enumeration. If there are no
@@ -80,10 +98,11 @@ public class AppenderAttachableImpl1 implements AppenderAttachable {
      * @return Enumeration An enumeration of attached appenders.
      */
     public Enumeration getAllAppenders() {
-        if (appenderList == null)
+        Appender[] appenders = appenderList;
+        if (appenders.length == 0)
             return null;
         else
-            return appenderList.elements();
+            return new ArrayEnumeration(appenders);
     }
 
     /**
@@ -93,15 +112,13 @@ public class AppenderAttachableImpl1 implements AppenderAttachable {
      * otherwise.
      */
     public Appender getAppender(String name) {
-        if (appenderList == null || name == null)
+        if (name == null)
             return null;
 
-        int size = appenderList.size();
-        Appender appender;
-        for (int i = 0; i < size; i++) {
-            appender = (Appender) appenderList.elementAt(i);
-            if (name.equals(appender.getName()))
-                return appender;
+        Appender[] appenders = appenderList;
+        for (int i = 0; i < appenders.length; i++) {
+            if (name.equals(appenders[i].getName()))
+                return appenders[i];
         }
         return null;
     }
@@ -114,17 +131,9 @@ public class AppenderAttachableImpl1 implements AppenderAttachable {
      * @since 1.2
      */
     public boolean isAttached(Appender appender) {
-        if (appenderList == null || appender == null)
+        if (appender == null)
             return false;
-
-        int size = appenderList.size();
-        Appender a;
-        for (int i = 0; i < size; i++) {
-            a = (Appender) appenderList.elementAt(i);
-            if (a == appender)
-                return true;
-        }
-        return false;
+        return indexOf(appenderList, appender) >= 0;
     }
 
 
@@ -132,14 +141,14 @@ public class AppenderAttachableImpl1 implements AppenderAttachable {
      * Remove and close all previously attached appenders.
      */
     public void removeAllAppenders() {
-        if (appenderList != null) {
-            int len = appenderList.size();
-            for (int i = 0; i < len; i++) {
-                Appender a = (Appender) appenderList.elementAt(i);
-                a.close();
-            }
-            appenderList.removeAllElements();
-            appenderList = null;
+        Appender[] appenders;
+        synchronized (this) {
+            appenders = appenderList;
+            appenderList = NO_APPENDERS;
+        }
+        // 先替换为空数组再关闭, 新的日志事件不会再分发到正在关闭的appender
+        for (int i = 0; i < appenders.length; i++) {
+            appenders[i].close();
         }
     }
 
@@ -148,10 +157,10 @@ public class AppenderAttachableImpl1 implements AppenderAttachable {
      * Remove the appender passed as parameter form the list of attached
      * appenders.
      */
-    public void removeAppender(Appender appender) {
-        if (appender == null || appenderList == null)
+    public synchronized void removeAppender(Appender appender) {
+        if (appender == null)
             return;
-        appenderList.removeElement(appender);
+        removeAt(indexOf(appenderList, appender));
     }
 
 
@@ -159,15 +168,63 @@ public class AppenderAttachableImpl1 implements AppenderAttachable {
      * Remove the appender with the name passed as parameter form the
      * list of appenders.
      */
-    public void removeAppender(String name) {
-        if (name == null || appenderList == null) return;
-        int size = appenderList.size();
-        for (int i = 0; i < size; i++) {
-            if (name.equals(((Appender) appenderList.elementAt(i)).getName())) {
-                appenderList.removeElementAt(i);
+    public synchronized void removeAppender(String name) {
+        if (name == null)
+            return;
+        Appender[] appenders = appenderList;
+        for (int i = 0; i < appenders.length; i++) {
+            if (name.equals(appenders[i].getName())) {
+                removeAt(i);
                 break;
             }
         }
     }
 
+    /**
+     * 复制出去掉下标index元素的新数组并发布. 调用方必须持有本对象的锁.
+     */
+    private void removeAt(int index) {
+        Appender[] appenders = appenderList;
+        if (index < 0 || index >= appenders.length)
+            return;
+        if (appenders.length == 1) {
+            appenderList = NO_APPENDERS;
+            return;
+        }
+        Appender[] copy = new Appender[appenders.length - 1];
+        System.arraycopy(appenders, 0, copy, 0, index);
+        System.arraycopy(appenders, index + 1, copy, index, appenders.length - index - 1);
+        appenderList = copy;
+    }
+
+    private static int indexOf(Appender[] appenders, Appender appender) {
+        for (int i = 0; i < appenders.length; i++) {
+            if (appenders[i] == appender)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 基于数组快照的Enumeration, 不受之后appender列表变更的影响.
+     */
+    private static final class ArrayEnumeration implements Enumeration {
+        private final Appender[] appenders;
+        private int index;
+
+        ArrayEnumeration(Appender[] appenders) {
+            this.appenders = appenders;
+        }
+
+        public boolean hasMoreElements() {
+            return index < appenders.length;
+        }
+
+        public Object nextElement() {
+            if (index >= appenders.length)
+                throw new NoSuchElementException();
+            return appenders[index++];
+        }
+    }
+
 }
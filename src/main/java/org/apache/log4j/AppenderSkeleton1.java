@@ -24,6 +24,8 @@ import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.OptionHandler;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 /**
  * Abstract superclass of the other appenders in the package.
@@ -52,6 +54,8 @@ public abstract class AppenderSkeleton1 implements Appender, OptionHandler {
      */
     protected Priority threshold;
 
+    private static final AtomicInteger THRESHOLD_GENERATION = new AtomicInteger();
+
     /**
      * It is assumed and enforced that errorHandler is never null.
      */
@@ -302,5 +306,36 @@ public abstract class AppenderSkeleton1 implements Appender, OptionHandler {
      */
     public void setThreshold(Priority threshold) {
         this.threshold = threshold;
+        THRESHOLD_GENERATION.incrementAndGet();
+    }
+
+    /**
+     * 本appender是否可以接收复用的{@link MutableLoggingEvent}, 默认不可以.
+     * 复用的事件中父类的final字段(timeStamp等)和getTimeStamp()始终为0/null, 只有确定不读取这些字段、
+     * 也不在doAppend返回后持有事件的appender才能返回true. 覆盖了append的子类需要重新确认
+     */
+    protected boolean supportsReusableEvents() {
+        return false;
+    }
+
+    /**
+     * Logger1分发前检查: 本appender声明支持复用的事件, 并且能看到事件的其他对象也都是确定的:
+     * 没有filter, errorHandler是默认的OnlyOnceErrorHandler, layout为null或本项目的layout(而不是其子类).
+     * filter、layout可以随时修改, 每次分发前检查
+     */
+    final boolean canReceiveReusableEvents() {
+        if (!supportsReusableEvents() || headFilter != null || errorHandler.getClass() != OnlyOnceErrorHandler.class) {
+            return false;
+        }
+        Layout l = layout;
+        return l == null || l.getClass() == PatternLayout1.class || l.getClass() == JsonStreamLayout.class;
+    }
+
+    /**
+     * threshold配置的代数, 任一AppenderSkeleton1的threshold变化时加1.
+     * Logger1据此判断缓存的可达appender的最低threshold是否过期
+     */
+    static int getThresholdGeneration() {
+        return THRESHOLD_GENERATION.get();
     }
 }
@@ -0,0 +1,373 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.RingBuffer;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author clj
+ * 异步appender: 调用线程只负责把日志事件快照后放入有界的无锁环形缓冲区,
+ * 由专门的消费线程取出事件并交给被包装的appender(如RollingFileAppender)写出.
+ *
+ * <p>可以直接在log4j.properties中为任意appender开启, 示例:
+ * <pre>
+ * log4j.appender.rollingFile.async=true
+ * log4j.appender.rollingFile.async.bufferSize=1024
+ * log4j.appender.rollingFile.async.fullPolicy=Block
+ * </pre>
+ *
+ * <p>缓冲区满时的处理策略(fullPolicy):
+ * <ul>
+ * <li>Block - 调用线程等待, 直到缓冲区有空位(默认)</li>
+ * <li>DropBelowWarn - 丢弃WARN以下级别的事件, WARN及以上级别仍然等待</li>
+ * <li>DiscardOldest - 丢弃缓冲区中最早的事件, 为新事件腾出位置</li>
+ * </ul>
+ *
+ * <p>关闭时(包括Hierarchy1.shutdown关闭嵌套appender时)会先把缓冲区中剩余的事件全部写出,
+ * 再关闭被包装的appender.
+ */
+public class AsyncRingBufferAppender extends AppenderSkeleton1 implements AppenderAttachable {
+
+    public static final String BLOCK = "Block";
+    public static final String DROP_BELOW_WARN = "DropBelowWarn";
+    public static final String DISCARD_OLDEST = "DiscardOldest";
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final int POLICY_BLOCK = 0;
+    private static final int POLICY_DROP_BELOW_WARN = 1;
+    private static final int POLICY_DISCARD_OLDEST = 2;
+
+    /**
+     * 消费线程空闲时的最长休眠时间
+     */
+    private static final long IDLE_PARK_NANOS = 10000000L;
+
+    private final AppenderAttachableImpl1 aai = new AppenderAttachableImpl1();
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private String fullPolicy = BLOCK;
+    private int policy = POLICY_BLOCK;
+    private boolean locationInfo = false;
+
+    private RingBuffer buffer;
+    private Thread dispatcher;
+
+    /**
+     * 消费线程是否已经(或即将)休眠, 生产者据此决定是否需要唤醒它
+     */
+    private volatile boolean dispatcherParked;
+    private volatile boolean stopping;
+
+    /**
+     * close()开始后为true, 之后进入doAppend的事件都被拒绝
+     */
+    private volatile boolean closing;
+
+    /**
+     * 正在doAppend中的调用线程数. 调用线程先加1再检查closing, close()先设置closing再等待它归零,
+     * 因此close()返回后不会再有调用线程向缓冲区放入事件或同步写出
+     */
+    private final AtomicInteger producers = new AtomicInteger();
+
+    /**
+     * 因缓冲区已满被丢弃的事件数
+     */
+    private final AtomicLong discardedCount = new AtomicLong();
+
+    public AsyncRingBufferAppender() {
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 缓冲区满时的处理策略: Block, DropBelowWarn 或 DiscardOldest.
+     */
+    public void setFullPolicy(String fullPolicy) {
+        if (DROP_BELOW_WARN.equalsIgnoreCase(fullPolicy)) {
+            policy = POLICY_DROP_BELOW_WARN;
+        } else if (DISCARD_OLDEST.equalsIgnoreCase(fullPolicy)) {
+            policy = POLICY_DISCARD_OLDEST;
+        } else {
+            if (!BLOCK.equalsIgnoreCase(fullPolicy)) {
+                LogLog.warn("Unknown fullPolicy [" + fullPolicy + "] for appender [" + name + "], using " + BLOCK + ".");
+                fullPolicy = BLOCK;
+            }
+            policy = POLICY_BLOCK;
+        }
+        this.fullPolicy = fullPolicy;
+    }
+
+    public String getFullPolicy() {
+        return fullPolicy;
+    }
+
+    /**
+     * 是否在放入缓冲区之前采集调用位置信息(%l %F %L %M %C需要). 默认false.
+     */
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    public long getDiscardedCount() {
+        return discardedCount.get();
+    }
+
+    /**
+     * 创建缓冲区并启动消费线程
+     */
+    public synchronized void activateOptions() {
+        if (dispatcher != null) {
+            return;
+        }
+        buffer = new RingBuffer(bufferSize);
+        dispatcher = new Thread(new Dispatcher(), "AsyncRingBufferAppender-" + name);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * 与父类不同, 这里不加锁: 多个调用线程可以同时把事件放入缓冲区.
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+        producers.incrementAndGet();
+        try {
+            if (closing) {
+                LogLog.error("Attempted to append to closed appender named [" + name + "].");
+                return;
+            }
+            filterAndAppend(event);
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    private void filterAndAppend(LoggingEvent event) {
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+
+        Filter f = this.headFilter;
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+                case Filter.DENY:
+                    return;
+                case Filter.ACCEPT:
+                    break FILTER_LOOP;
+                case Filter.NEUTRAL:
+                    f = f.getNext();
+            }
+        }
+
+        this.append(event);
+    }
+
+    protected void append(LoggingEvent event) {
+        RingBuffer rb = buffer;
+        // 未激活, 或者是消费线程自己输出的日志(如被包装的appender内部打印日志), 直接同步写出, 避免自己等待自己
+        if (rb == null || Thread.currentThread() == dispatcher) {
+            aai.appendLoopOnAppenders(event);
+            return;
+        }
+
+        // 复用的可变事件在返回后会被改写, 先复制为不可变的事件
+        event = MutableLoggingEvent.snapshot(event);
+        // 交给消费线程之前, 把依赖调用线程上下文的信息全部固定到事件中
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        // 参数都是不可变值的参数化消息留给消费线程格式化; 参数可能被调用线程修改时在这里格式化
+        Object message = event.getMessage();
+        if (!(message instanceof ParameterizedMessage)
+                || !((ParameterizedMessage) message).hasImmutableArguments()) {
+            event.getRenderedMessage();
+        }
+        event.getThrowableStrRep();
+        if (locationInfo) {
+            event.getLocationInformation();
+        }
+
+        if (!rb.offer(event)) {
+            handleFull(rb, event);
+        }
+        if (dispatcherParked) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private void drain(RingBuffer rb) {
+        LoggingEvent event;
+        while ((event = (LoggingEvent) rb.poll()) != null) {
+            aai.appendLoopOnAppenders(event);
+        }
+    }
+
+    /**
+     * 缓冲区已满时按照fullPolicy处理
+     */
+    private void handleFull(RingBuffer rb, LoggingEvent event) {
+        if (policy == POLICY_DROP_BELOW_WARN && !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            discardedCount.incrementAndGet();
+            return;
+        }
+        while (!rb.offer(event)) {
+            if (policy == POLICY_DISCARD_OLDEST) {
+                if (rb.poll() != null) {
+                    discardedCount.incrementAndGet();
+                }
+                continue;
+            }
+            if (!dispatcher.isAlive()) {
+                // 消费线程已异常退出, 不再等待, 直接同步写出
+                aai.appendLoopOnAppenders(event);
+                return;
+            }
+            LockSupport.unpark(dispatcher);
+            LockSupport.parkNanos(1000L);
+        }
+    }
+
+    /**
+     * 停止接收新事件, 等待已进入doAppend的调用线程放完事件(消费线程仍在运行, 缓冲区满时等待的线程也能放入),
+     * 再等待消费线程写出缓冲区中剩余的事件并退出, 最后在当前线程写出残留的事件后关闭被包装的appender.
+     */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closing = true;
+            t = dispatcher;
+        }
+        while (producers.get() != 0) {
+            LockSupport.parkNanos(1000L);
+        }
+        stopping = true;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LogLog.error("Got an InterruptedException while waiting for the dispatcher to finish.", e);
+            }
+        }
+        // 消费线程已退出(或join被中断), 不会再有调用线程放入事件, 剩余的事件在这里写出
+        RingBuffer rb = buffer;
+        if (rb != null) {
+            drain(rb);
+        }
+        long discarded = discardedCount.get();
+        if (discarded > 0) {
+            LogLog.warn("Appender [" + name + "] discarded " + discarded + " events because its buffer was full.");
+        }
+        aai.removeAllAppenders();
+    }
+
+    /**
+     * 是否需要layout由被包装的appender决定
+     */
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    /**
+     * 放入缓冲区前先用MutableLoggingEvent.snapshot复制为不可变的事件
+     */
+    protected boolean supportsReusableEvents() {
+        return true;
+    }
+
+    public void addAppender(Appender newAppender) {
+        aai.addAppender(newAppender);
+    }
+
+    public Enumeration getAllAppenders() {
+        return aai.getAllAppenders();
+    }
+
+    public Appender getAppender(String name) {
+        return aai.getAppender(name);
+    }
+
+    public boolean isAttached(Appender appender) {
+        return aai.isAttached(appender);
+    }
+
+    public void removeAllAppenders() {
+        aai.removeAllAppenders();
+    }
+
+    public void removeAppender(Appender appender) {
+        aai.removeAppender(appender);
+    }
+
+    public void removeAppender(String name) {
+        aai.removeAppender(name);
+    }
+
+    /**
+     * 消费线程: 循环取出事件交给被包装的appender, 收到关闭信号后把剩余事件写完再退出
+     */
+    private class Dispatcher implements Runnable {
+
+        public void run() {
+            RingBuffer rb = buffer;
+            for (; ; ) {
+                LoggingEvent event = (LoggingEvent) rb.poll();
+                if (event != null) {
+                    dispatch(event);
+                    continue;
+                }
+                if (stopping) {
+                    // 再检查一次, 确保关闭前已放入的事件都被写出
+                    if (rb.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                dispatcherParked = true;
+                if (rb.isEmpty() && !stopping) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                dispatcherParked = false;
+            }
+        }
+
+        /**
+         * 写出一个事件. 被包装的appender抛出的任何异常都在这里报告, 消费线程继续处理后面的事件,
+         * 否则消费线程退出后缓冲区再也不会被清空
+         */
+        private void dispatch(LoggingEvent event) {
+            try {
+                aai.appendLoopOnAppenders(event);
+            } catch (Exception e) {
+                errorHandler.error("Appender [" + name + "] failed to dispatch an event.", e, ErrorCode.GENERIC_FAILURE);
+            } catch (Throwable e) {
+                LogLog.error("Appender [" + name + "] failed to dispatch an event.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.BinaryEventEncoder;
+import org.apache.log4j.helpers.BinaryLogFormat;
+import org.apache.log4j.helpers.ByteBufferDestination;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author clj
+ * 以紧凑的二进制格式写日志文件的appender, 用于日志量最大的服务.
+ *
+ * <p>不格式化文本: logger名、线程名、MDC key、类名等在每次打开文件后只写一次(字典), 之后只写id;
+ * 时间戳只写与上一条的差值; 消息、MDC值等原样写入. 格式见{@link BinaryLogFormat}和{@link BinaryEventEncoder}.
+ * 不需要layout, 输出时再用BinaryLogDecoder按任意PatternLayout1的pattern还原为文本:
+ * <pre>
+ * java -cp ... org.apache.log4j.BinaryLogDecoder D://logs/myLog.bin "%d [%t] %-5p [%c:%L] - tid=%X{traceId}, %m%n"
+ * </pre>
+ *
+ * <p>配置示例:
+ * <pre>
+ * log4j.appender.binaryFile=org.apache.log4j.BinaryFileAppender
+ * log4j.appender.binaryFile.file=D://logs/myLog.bin
+ * log4j.appender.binaryFile.immediateFlush=false
+ * log4j.appender.binaryFile.locationInfo=true
+ * </pre>
+ */
+public class BinaryFileAppender extends AppenderSkeleton1 {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    protected String fileName;
+    protected boolean fileAppend = true;
+    protected int bufferSize = DEFAULT_BUFFER_SIZE;
+    protected boolean immediateFlush = true;
+    protected boolean locationInfo = false;
+
+    // 直接写FileOutputStream, 不使用FileChannel: 线程被中断时FileChannel会被关闭, 之后无法再写入
+    private FileOutputStream out;
+    private ByteBuffer byteBuffer;
+    private BinaryEventEncoder encoder;
+    private final ByteBufferDestination destination = new StreamDestination();
+
+    public BinaryFileAppender() {
+    }
+
+    public BinaryFileAppender(String filename, boolean append) throws IOException {
+        this.fileAppend = append;
+        setFile(filename, append);
+    }
+
+    public void setFile(String file) {
+        this.fileName = file.trim();
+    }
+
+    public String getFile() {
+        return fileName;
+    }
+
+    public void setAppend(boolean append) {
+        this.fileAppend = append;
+    }
+
+    public boolean getAppend() {
+        return fileAppend;
+    }
+
+    /**
+     * 缓冲区大小, 默认64KB
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 是否每条日志都写到文件, 默认值true. 为false时缓冲区写满或关闭时才写
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    public boolean getImmediateFlush() {
+        return immediateFlush;
+    }
+
+    /**
+     * 是否记录调用位置, 默认值false
+     */
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    public void activateOptions() {
+        if (fileName != null) {
+            try {
+                setFile(fileName, fileAppend);
+            } catch (IOException e) {
+                errorHandler.error("setFile(" + fileName + "," + fileAppend + ") call failed.",
+                        e, ErrorCode.FILE_OPEN_FAILURE);
+            }
+        } else {
+            LogLog.warn("File option not set for appender [" + name + "].");
+        }
+    }
+
+    /**
+     * 打开文件. 新文件先写入魔数和版本号; 每次打开都开始一个新的会话
+     */
+    public synchronized void setFile(String fileName, boolean append) throws IOException {
+        LogLog.debug("setFile called: " + fileName + ", " + append);
+        reset();
+        File file = new File(fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        boolean empty = !append || file.length() == 0;
+        this.out = new FileOutputStream(file, append);
+        this.fileName = fileName;
+        this.fileAppend = append;
+        this.byteBuffer = ByteBuffer.allocate(Math.max(bufferSize, 256));
+        this.encoder = new BinaryEventEncoder(locationInfo);
+        if (empty) {
+            byteBuffer.put(BinaryLogFormat.MAGIC);
+            byteBuffer.put(BinaryLogFormat.VERSION);
+        }
+        encoder.startSession(System.currentTimeMillis(), destination);
+        flush();
+        LogLog.debug("setFile ended");
+    }
+
+    protected void append(LoggingEvent event) {
+        if (this.closed) {
+            LogLog.warn("Not allowed to write to a closed appender.");
+            return;
+        }
+        if (this.out == null) {
+            errorHandler.error("No output file set for the appender named [" + name + "].");
+            return;
+        }
+        encoder.encode(event, destination);
+        if (immediateFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * 把缓冲区中的内容写到文件
+     */
+    public synchronized void flush() {
+        if (out != null && byteBuffer.position() > 0) {
+            destination.drain(byteBuffer);
+        }
+    }
+
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        reset();
+    }
+
+    protected void reset() {
+        if (out != null) {
+            flush();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                LogLog.error("Could not close " + fileName, e);
+            }
+            out = null;
+        }
+        encoder = null;
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    /**
+     * 同步编码写出, 不持有事件; 时间戳通过MutableLoggingEvent.timeStampOf读取
+     */
+    protected boolean supportsReusableEvents() {
+        return true;
+    }
+
+    private class StreamDestination implements ByteBufferDestination {
+
+        public ByteBuffer getByteBuffer() {
+            return byteBuffer;
+        }
+
+        public ByteBuffer drain(ByteBuffer buf) {
+            try {
+                out.write(buf.array(), buf.arrayOffset(), buf.position());
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                errorHandler.error("Failed to write to file for appender named [" + name + "].", e,
+                        ErrorCode.WRITE_FAILURE);
+            }
+            buf.clear();
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.BinaryLogFormat;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RootLogger1;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author clj
+ * 读取BinaryFileAppender写的二进制日志文件, 还原为LoggingEvent.
+ *
+ * <p>也可以作为命令行工具, 按指定的PatternLayout1 pattern把文件输出为文本:
+ * <pre>
+ * java -cp ... org.apache.log4j.BinaryLogDecoder &lt;binaryFile&gt; [conversionPattern] [encoding]
+ * </pre>
+ * 不指定pattern时使用"%d [%t] %-5p [%c:%L] - %X %m%n". 异常堆栈跟在对应日志之后输出.
+ */
+public class BinaryLogDecoder {
+
+    public static final String DEFAULT_CONVERSION_PATTERN = "%d [%t] %-5p [%c:%L] - %X %m%n";
+
+    /**
+     * 还原的事件的fqnOfCategoryClass. 不会出现在调用栈中, %L等直接使用事件中保存的位置
+     */
+    private static final String FQCN = BinaryLogDecoder.class.getName() + ".Replay";
+
+    private static final LocationInfo NO_LOCATION = new LocationInfo(LocationInfo.NA, LocationInfo.NA,
+            LocationInfo.NA, LocationInfo.NA);
+
+    private final InputStream in;
+
+    /**
+     * 字典, 下标为id
+     */
+    private final List dictionary = new ArrayList();
+    private long lastTimestamp;
+
+    /**
+     * 独立的logger hierarchy, 只用来为事件提供logger名
+     */
+    private final Hierarchy1 hierarchy = new Hierarchy1(new RootLogger1(Level.ALL));
+
+    /**
+     * 相同调用位置复用同一个LocationInfo
+     */
+    private final Map locations = new HashMap();
+
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+
+    public BinaryLogDecoder(InputStream in) throws IOException {
+        this.in = in;
+        byte[] magic = new byte[BinaryLogFormat.MAGIC.length + 1];
+        readFully(magic);
+        if (!Arrays.equals(Arrays.copyOf(magic, BinaryLogFormat.MAGIC.length), BinaryLogFormat.MAGIC)) {
+            throw new IOException("Not a binary log file");
+        }
+        if (magic[BinaryLogFormat.MAGIC.length] > BinaryLogFormat.VERSION) {
+            throw new IOException("Unsupported binary log version " + magic[BinaryLogFormat.MAGIC.length]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + BinaryLogDecoder.class.getName()
+                    + " <binaryFile> [conversionPattern] [encoding]");
+            System.exit(1);
+        }
+        PatternLayout1 layout = new PatternLayout1(args.length > 1 ? args[1] : DEFAULT_CONVERSION_PATTERN);
+        layout.setCompiled(true);
+        Writer out = args.length > 2
+                ? new BufferedWriter(new OutputStreamWriter(System.out, args[2]), 64 * 1024)
+                : new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+        InputStream in = new BufferedInputStream(new FileInputStream(args[0]), 64 * 1024);
+        try {
+            BinaryLogDecoder decoder = new BinaryLogDecoder(in);
+            StringBuilder sb = new StringBuilder(256);
+            LoggingEvent event;
+            while ((event = decoder.read()) != null) {
+                sb.setLength(0);
+                layout.format(sb, event);
+                String[] s = event.getThrowableStrRep();
+                if (s != null) {
+                    for (int i = 0; i < s.length; i++) {
+                        sb.append(s[i]).append(Layout.LINE_SEP);
+                    }
+                }
+                out.append(sb);
+            }
+        } finally {
+            in.close();
+            out.flush();
+        }
+    }
+
+    /**
+     * 读取下一条日志, 文件结束时返回null. 文件末尾不完整的记录(写入时进程退出)被忽略
+     */
+    public LoggingEvent read() throws IOException {
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                return null;
+            }
+            try {
+                int length = readVarint();
+                ByteBuffer buf = readRecord(length);
+                switch (type) {
+                    case BinaryLogFormat.SESSION:
+                        dictionary.clear();
+                        lastTimestamp = buf.getLong();
+                        break;
+                    case BinaryLogFormat.DICT:
+                        int id = BinaryLogFormat.getVarint(buf);
+                        String s = BinaryLogFormat.getString(buf);
+                        while (dictionary.size() <= id) {
+                            dictionary.add(null);
+                        }
+                        dictionary.set(id, s);
+                        break;
+                    case BinaryLogFormat.EVENT:
+                        return decodeEvent(buf);
+                    default:
+                        // 未知类型的记录, 按长度跳过
+                        break;
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+    }
+
+    private LoggingEvent decodeEvent(ByteBuffer buf) {
+        long timestamp = lastTimestamp + BinaryLogFormat.getZigZag(buf);
+        lastTimestamp = timestamp;
+        int code = buf.get();
+        Level level = BinaryLogFormat.toLevel(code);
+        if (level == null) {
+            level = Level.toLevel((int) BinaryLogFormat.getZigZag(buf));
+        }
+        String loggerName = getReference(buf);
+        String threadName = getReference(buf);
+        int flags = buf.get();
+
+        LocationInfo location = NO_LOCATION;
+        if ((flags & BinaryLogFormat.FLAG_LOCATION) != 0) {
+            String className = getReference(buf);
+            String methodName = getReference(buf);
+            String fileName = getReference(buf);
+            int line = BinaryLogFormat.getVarint(buf);
+            location = location(className, methodName, fileName, line);
+        }
+
+        int mdcSize = BinaryLogFormat.getVarint(buf);
+        Map mdc = null;
+        if (mdcSize > 0) {
+            mdc = new HashMap(mdcSize * 2);
+            for (int i = 0; i < mdcSize; i++) {
+                String key = getReference(buf);
+                mdc.put(key, BinaryLogFormat.getString(buf));
+            }
+        }
+
+        Object message;
+        if ((flags & BinaryLogFormat.FLAG_PARAMETERS) != 0) {
+            message = getParameters(buf);
+        } else {
+            message = BinaryLogFormat.getString(buf);
+        }
+        String ndc = null;
+        if ((flags & BinaryLogFormat.FLAG_NDC) != 0) {
+            ndc = BinaryLogFormat.getString(buf);
+        }
+        ThrowableInformation throwable = null;
+        if ((flags & BinaryLogFormat.FLAG_THROWABLE) != 0) {
+            String[] rep = new String[BinaryLogFormat.getVarint(buf)];
+            for (int i = 0; i < rep.length; i++) {
+                rep[i] = BinaryLogFormat.getString(buf);
+            }
+            throwable = new ThrowableInformation(rep);
+        }
+
+        return new LoggingEvent(FQCN, hierarchy.getLogger(loggerName), timestamp, level, message,
+                threadName, throwable, ndc, location, mdc);
+    }
+
+    /**
+     * 读取模板和参数, 还原为ParameterizedMessage, 由layout输出时格式化
+     */
+    private ParameterizedMessage getParameters(ByteBuffer buf) {
+        String template = getReference(buf);
+        Object[] args = new Object[BinaryLogFormat.getVarint(buf)];
+        for (int i = 0; i < args.length; i++) {
+            int type = buf.get();
+            switch (type) {
+                case BinaryLogFormat.ARG_NULL:
+                    break;
+                case BinaryLogFormat.ARG_STRING:
+                    args[i] = BinaryLogFormat.getString(buf);
+                    break;
+                case BinaryLogFormat.ARG_LONG:
+                    args[i] = Long.valueOf(BinaryLogFormat.getZigZag(buf));
+                    break;
+                case BinaryLogFormat.ARG_DOUBLE:
+                    args[i] = Double.valueOf(buf.getDouble());
+                    break;
+                case BinaryLogFormat.ARG_BOOLEAN:
+                    args[i] = Boolean.valueOf(buf.get() != 0);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown argument type " + type);
+            }
+        }
+        // 写入时异常已经从参数中分离, 这里的参数中不会有Throwable
+        return new ParameterizedMessage(template, args);
+    }
+
+    private LocationInfo location(String className, String methodName, String fileName, int line) {
+        String key = className + '.' + methodName + '(' + fileName + ':' + line + ')';
+        LocationInfo info = (LocationInfo) locations.get(key);
+        if (info == null) {
+            info = new LocationInfo(fileName, className, methodName,
+                    line == 0 ? LocationInfo.NA : String.valueOf(line));
+            locations.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * 读取字典引用. id为0时字符串直接跟在后面
+     */
+    private String getReference(ByteBuffer buf) {
+        int id = BinaryLogFormat.getVarint(buf);
+        if (id == 0) {
+            return BinaryLogFormat.getString(buf);
+        }
+        if (id >= dictionary.size() || dictionary.get(id) == null) {
+            throw new IllegalStateException("Undeclared dictionary id " + id);
+        }
+        return (String) dictionary.get(id);
+    }
+
+    private ByteBuffer readRecord(int length) throws IOException {
+        if (record.capacity() < length) {
+            record = ByteBuffer.allocate(Math.max(length, record.capacity() * 2));
+        }
+        readFully(record.array(), length);
+        record.clear();
+        record.limit(length);
+        return record;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void readFully(byte[] b) throws IOException {
+        readFully(b, b.length);
+    }
+
+    private void readFully(byte[] b, int length) throws IOException {
+        int off = 0;
+        while (off < length) {
+            int n = in.read(b, off, length - off);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            off += n;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.apache.log4j;
+
+import org.apache.log4j.spi.LoggerFactory;
+
+/**
+ * @author clj
+ * Hierarchy1默认的LoggerFactory, 创建{@link Logger1}
+ */
+class DefaultCategoryFactory1 implements LoggerFactory {
+
+    DefaultCategoryFactory1() {
+    }
+
+    public Logger makeNewLoggerInstance(String name) {
+        return new Logger1(name);
+    }
+}
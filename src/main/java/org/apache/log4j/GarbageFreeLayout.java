@@ -0,0 +1,16 @@
+package org.apache.log4j;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * @author clj
+ * 可以把日志事件直接格式化到调用方提供的StringBuilder中的layout.
+ * appender复用同一个StringBuilder时, 格式化过程不需要生成中间String.
+ */
+public interface GarbageFreeLayout {
+
+    /**
+     * 把格式化后的日志内容追加到sb的末尾
+     */
+    void format(StringBuilder sb, LoggingEvent event);
+}
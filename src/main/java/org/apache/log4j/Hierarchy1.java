@@ -34,8 +34,10 @@ import org.apache.log4j.or.RendererMap;
 import org.apache.log4j.spi.*;
 
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is specialized in retrieving loggers by name and also
@@ -62,13 +64,35 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
     private LoggerFactory defaultFactory;
     private Vector listeners;
 
-    Hashtable ht;
+    /**
+     * logger名称 -> Logger或ProvisionNode. 读取已有logger时不加锁,
+     * 创建logger以及调整ProvisionNode中子节点的父子关系时持有creationLock
+     */
+    final ConcurrentHashMap ht;
+    private final Object creationLock = new Object();
     Logger root;
     RendererMap rendererMap;
 
     int thresholdInt;
     Level threshold;
 
+    /**
+     * 级别配置的代数. threshold或任一logger的level变化时加1,
+     * Logger1据此判断缓存的有效级别是否过期. 从1开始且跳过0, 0表示logger还没有缓存
+     */
+    private final AtomicInteger generation = new AtomicInteger(1);
+
+    /**
+     * 是否所有logger(包括root)都是Logger1. 自定义LoggerFactory创建了其他logger时为false:
+     * 这些logger的setLevel等修改不会使代数加1, Logger1不能再使用缓存
+     */
+    private volatile boolean cacheable;
+
+    /**
+     * 同步输出时是否复用每个线程的可变事件, 见{@link MutableLoggingEvent}. 默认不复用
+     */
+    private volatile boolean reusableEvents = false;
+
     boolean emittedNoAppenderWarning = false;
     boolean emittedNoResourceBundleWarning = false;
 
@@ -80,14 +104,15 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
      * @param root The root of the new hierarchy.
      */
     public Hierarchy1(Logger root) {
-        ht = new Hashtable();
+        ht = new ConcurrentHashMap();
         listeners = new Vector(1);
         this.root = root;
+        this.cacheable = root instanceof Logger1;
         // Enable all level levels by default.
         setThreshold(Level.ALL);
         this.root.setHierarchy(this);
         rendererMap = new RendererMap();
-        defaultFactory = new DefaultCategoryFactory();
+        defaultFactory = new DefaultCategoryFactory1();
     }
 
     /**
@@ -138,7 +163,7 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
      * @param name The name of the logger to search for.
      */
     public Logger exists(String name) {
-        Object o = ht.get(new CategoryKey(name));
+        Object o = ht.get(name);
         if (o instanceof Logger) {
             return (Logger) o;
         } else {
@@ -170,6 +195,41 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
         if (l != null) {
             thresholdInt = l.level;
             threshold = l;
+            bumpGeneration();
+        }
+    }
+
+    /**
+     * 开启后Logger1同步输出时复用每个线程的{@link MutableLoggingEvent}, 不再为每条日志创建LoggingEvent.
+     * 只在可达的appender都不会在输出后继续持有事件, 且使用本项目的layout时生效, 见Logger1.forcedLog
+     */
+    public void setReusableEvents(boolean reusableEvents) {
+        this.reusableEvents = reusableEvents;
+    }
+
+    public boolean isReusableEvents() {
+        return reusableEvents;
+    }
+
+    /**
+     * Logger1是否可以按代数缓存级别配置
+     */
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * 当前级别配置的代数
+     */
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * 级别配置已变化, 使所有category缓存的有效级别失效
+     */
+    void bumpGeneration() {
+        while (generation.incrementAndGet() == 0) {
         }
     }
 
@@ -243,32 +303,38 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
      * @param factory The factory that will make the new logger instance.
      */
     public Logger getLogger(String name, LoggerFactory factory) {
-        CategoryKey key = new CategoryKey(name);
+        // 已创建的logger直接返回, 不加锁
+        Object o = ht.get(name);
+        if (o instanceof Logger) {
+            return (Logger) o;
+        }
         Logger logger;
-        synchronized (ht) {
-            Object o = ht.get(key);
+        synchronized (creationLock) {
+            o = ht.get(name);
             if (o == null) {
                 // 为空. 创建logger实例. 默认实现 Logger logger = new Logger(name)
                 logger = factory.makeNewLoggerInstance(name);
                 logger.setHierarchy(this);
-                // 写入Hierarchy的ht(Hashtable)缓存中
-                ht.put(key, logger);
+                checkCacheable(logger);
                 // 绑定当前logger和父logger
                 updateParents(logger);
+                // 父子关系绑定完成后才写入ht, 保证不加锁读取到的logger是完整的
+                ht.put(name, logger);
                 return logger;
             } else if (o instanceof Logger) {
-                // Logger类型. 直接返回
+                // Logger类型. 其他线程刚刚创建, 直接返回
                 return (Logger) o;
             } else if (o instanceof ProvisionNode) {
                 // 临时节点类型. 先创建出该节点
                 logger = factory.makeNewLoggerInstance(name);
                 logger.setHierarchy(this);
-                // 写入Hierarchy的ht(Hashtable)缓存中
-                ht.put(key, logger);
+                checkCacheable(logger);
+                // 先绑定当前logger和父logger. 读取不加锁, 子logger指向当前logger时, 当前logger的parent必须已经设置好
+                updateParents(logger);
                 // 找到创建logger之前临时存储的子节点, 重新绑定(子logger->旧parent  =>  子logger->当前logger->旧parent)
                 updateChildren((ProvisionNode) o, logger);
-                // 绑定当前logger和父logger
-                updateParents(logger);
+                // 替换ht中的临时节点
+                ht.put(name, logger);
                 return logger;
             } else {
                 return null;
@@ -276,6 +342,12 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
         }
     }
 
+    private void checkCacheable(Logger logger) {
+        if (cacheable && !(logger instanceof Logger1)) {
+            cacheable = false;
+        }
+    }
+
     /**
      * Returns all the currently defined categories in this hierarchy as
      * an {@link Enumeration Enumeration}.
@@ -289,9 +361,9 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
         // as well.
         Vector v = new Vector(ht.size());
 
-        Enumeration elems = ht.elements();
-        while (elems.hasMoreElements()) {
-            Object o = elems.nextElement();
+        Iterator elems = ht.values().iterator();
+        while (elems.hasNext()) {
+            Object o = elems.next();
             if (o instanceof Logger) {
                 v.addElement(o);
             }
@@ -362,9 +434,8 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
         root.setResourceBundle(null);
         setThreshold(Level.ALL);
 
-        // the synchronization is needed to prevent JDK 1.2.x hashtable
-        // surprises
-        synchronized (ht) {
+        // 防止重置过程中有新的logger被创建
+        synchronized (creationLock) {
             shutdown(); // nested locks are OK
 
             Enumeration cats = getCurrentLoggers();
@@ -377,6 +448,8 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
         }
         rendererMap.clear();
         throwableRenderer = null;
+        reusableEvents = false;
+        bumpGeneration();
     }
 
     /**
@@ -433,7 +506,7 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
         // begin by closing nested appenders
         root.closeNestedAppenders();
 
-        synchronized (ht) {
+        synchronized (creationLock) {
             Enumeration cats = this.getCurrentLoggers();
             while (cats.hasMoreElements()) {
                 Logger c = (Logger) cats.nextElement();
@@ -483,14 +556,13 @@ public class Hierarchy1 implements LoggerRepository, RendererSupport, ThrowableR
              i = name.lastIndexOf('.', i - 1)) {
             // 第一次遍历得到com.clj. 第二次遍历得到com
             String substr = name.substring(0, i);
-            CategoryKey key = new CategoryKey(substr);
-            Object o = ht.get(key);
+            Object o = ht.get(substr);
             // Create a provision node for a future parent.
             if (o == null) {
                 // ht中没缓存到, 则创建出临时节点, 临时节点存储的是当前的logger(com.clj.abc)
                 ProvisionNode pn = new ProvisionNode(cat);
                 // ht缓存临时节点. 第一次遍历(缓存了com.clj -> [logger(com.clj.abc)]), 第二次遍历(缓存了com -> [logger(com.clj.abc)])
-                ht.put(key, pn);
+                ht.put(substr, pn);
             } else if (o instanceof Category) {
                 // 若ht中得到是Category类型, 直接绑定当前logger的父节点, 修改parentFound标识
                 parentFound = true;
@@ -0,0 +1,371 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.CachedDateFormatter;
+import org.apache.log4j.helpers.EventMDC;
+import org.apache.log4j.helpers.LocationCapture;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author clj
+ * 每条日志输出一行JSON对象的layout, 便于日志采集端直接解析, 不需要再用正则拆分文本. 输出示例:
+ * <pre>
+ * {"timestamp":1681545600123,"level":"INFO","logger":"com.chenlongji.Foo","thread":"main",
+ *  "location":{"class":"com.chenlongji.Foo","method":"bar","file":"Foo.java","line":"42"},
+ *  "mdc":{"traceId":"3f2b8c1d"},"message":"hello","throwable":"java.lang.Exception: ...\n\tat ..."}
+ * </pre>
+ * (实际输出在同一行)
+ *
+ * <p>字段名连同引号、冒号和逗号都是预先拼好的常量; 字段值逐个字符转义后直接追加到输出缓冲区,
+ * 不经过中间的Map或String. 实现了{@link GarbageFreeLayout}, appender复用StringBuilder时格式化过程不产生垃圾.
+ *
+ * <p>选项:
+ * <ul>
+ * <li>DateFormat: timestamp的格式(SimpleDateFormat模式或ISO8601等简写). 不设置时输出毫秒时间戳数字;</li>
+ * <li>LocationInfo: 是否输出调用位置, 获取调用位置开销较大, 默认值false;</li>
+ * <li>Mdc: 是否输出MDC, 默认值true.</li>
+ * </ul>
+ */
+public class JsonStreamLayout extends Layout implements GarbageFreeLayout {
+
+    protected final int BUF_SIZE = 256;
+    protected final int MAX_CAPACITY = 1024;
+
+    private static final String TIMESTAMP_FIELD = "{\"timestamp\":";
+    private static final String LEVEL_FIELD = ",\"level\":\"";
+    private static final String LOGGER_FIELD = "\",\"logger\":\"";
+    private static final String THREAD_FIELD = "\",\"thread\":\"";
+    private static final String LOCATION_FIELD = ",\"location\":{\"class\":\"";
+    private static final String METHOD_FIELD = "\",\"method\":\"";
+    private static final String FILE_FIELD = "\",\"file\":\"";
+    private static final String LINE_FIELD = "\",\"line\":\"";
+    private static final String MDC_FIELD = ",\"mdc\":{";
+    private static final String MESSAGE_FIELD = ",\"message\":\"";
+    private static final String THROWABLE_FIELD = ",\"throwable\":\"";
+
+    /**
+     * 缓存的转义后名称数量上限, 超过后新名称每次重新转义
+     */
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    /**
+     * logger名、线程名、MDC key的种类有限而重复出现, 转义结果按名称缓存(大多数情况下就是原字符串)
+     */
+    private static final ConcurrentHashMap ESCAPED_NAMES = new ConcurrentHashMap();
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 0x00-0x7F中需要转义的字符对应的转义序列, null表示不需要转义
+     */
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = "\\u00" + HEX[c >> 4] + HEX[c & 0xF];
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    // format(LoggingEvent)使用的缓冲区
+    private StringBuilder sbuf = new StringBuilder(BUF_SIZE);
+
+    private String dateFormat;
+    private CachedDateFormatter dateFormatter;
+    private boolean locationInfo = false;
+    private boolean mdc = true;
+
+    // 当前线程上次输出的MDC
+    private final ThreadLocal renderedMdc = new ThreadLocal() {
+        protected Object initialValue() {
+            return new RenderedMdc();
+        }
+    };
+
+    public void setDateFormat(String dateFormat) {
+        this.dateFormat = dateFormat;
+    }
+
+    public String getDateFormat() {
+        return dateFormat;
+    }
+
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    public void setMdc(boolean mdc) {
+        this.mdc = mdc;
+    }
+
+    public boolean getMdc() {
+        return mdc;
+    }
+
+    public void activateOptions() {
+        dateFormatter = null;
+        if (dateFormat != null) {
+            try {
+                dateFormatter = new CachedDateFormatter(dateFormat);
+            } catch (IllegalArgumentException e) {
+                LogLog.error("Could not instantiate SimpleDateFormat with " + dateFormat
+                        + ", timestamp will be written as milliseconds.", e);
+            }
+        }
+    }
+
+    /**
+     * 异常堆栈作为throwable字段输出, 不需要appender另外输出
+     */
+    public boolean ignoresThrowable() {
+        return false;
+    }
+
+    public String getContentType() {
+        return "application/json";
+    }
+
+    public String format(LoggingEvent event) {
+        // 重置buffer容量 (因为有些大日志输出时会将buffer的容量变得很大)
+        if (sbuf.capacity() > MAX_CAPACITY) {
+            sbuf = new StringBuilder(BUF_SIZE);
+        } else {
+            sbuf.setLength(0);
+        }
+        format(sbuf, event);
+        return sbuf.toString();
+    }
+
+    public void format(StringBuilder sb, LoggingEvent event) {
+        sb.append(TIMESTAMP_FIELD);
+        CachedDateFormatter df = dateFormatter;
+        if (df == null) {
+            sb.append(MutableLoggingEvent.timeStampOf(event));
+        } else {
+            sb.append('"');
+            df.format(MutableLoggingEvent.timeStampOf(event), sb);
+            sb.append('"');
+        }
+
+        sb.append(LEVEL_FIELD);
+        sb.append(event.getLevel().toString());
+        sb.append(LOGGER_FIELD);
+        appendName(sb, event.getLoggerName());
+        sb.append(THREAD_FIELD);
+        appendName(sb, event.getThreadName());
+        sb.append('"');
+
+        if (locationInfo) {
+            LocationInfo li = LocationCapture.getLocationInformation(event);
+            sb.append(LOCATION_FIELD);
+            appendEscaped(sb, li.getClassName());
+            sb.append(METHOD_FIELD);
+            appendEscaped(sb, li.getMethodName());
+            sb.append(FILE_FIELD);
+            appendEscaped(sb, li.getFileName());
+            sb.append(LINE_FIELD);
+            appendEscaped(sb, li.getLineNumber());
+            sb.append("\"}");
+        }
+
+        if (mdc) {
+            appendMdc(sb, event);
+        }
+
+        sb.append(MESSAGE_FIELD);
+        appendEscaped(sb, event.getRenderedMessage());
+        sb.append('"');
+
+        String[] throwable = event.getThrowableStrRep();
+        if (throwable != null && throwable.length > 0) {
+            sb.append(THROWABLE_FIELD);
+            for (int i = 0; i < throwable.length; i++) {
+                if (i > 0) {
+                    sb.append("\\n");
+                }
+                appendEscaped(sb, throwable[i]);
+            }
+            sb.append('"');
+        }
+
+        sb.append('}');
+        sb.append(LINE_SEP);
+    }
+
+    /**
+     * MDC为空时不输出mdc字段. 与上次输出时相比值(按引用比较)都没有变化时, 直接追加上次的输出
+     */
+    private void appendMdc(StringBuilder sb, LoggingEvent event) {
+        // 在打印日志的线程中直接读取该线程的MDC, 不克隆
+        Map properties = EventMDC.getContext(event);
+        int size = properties == null ? 0 : properties.size();
+        if (size == 0) {
+            return;
+        }
+
+        RenderedMdc r = (RenderedMdc) renderedMdc.get();
+        if (r.text != null && r.keys.length == size) {
+            boolean same = true;
+            for (int i = 0; i < size && same; i++) {
+                same = properties.get(r.keys[i]) == r.values[i];
+            }
+            if (same) {
+                sb.append(r.text);
+                return;
+            }
+        }
+
+        if (!r.sameKeys(properties, size)) {
+            // Hashtable的keySet每次都会创建包装对象, 只在key集合变化时调用
+            Object[] keys = properties.keySet().toArray();
+            Arrays.sort(keys);
+            r.keys = keys;
+            r.values = new Object[keys.length];
+        }
+        int start = sb.length();
+        boolean cacheable = true;
+        sb.append(MDC_FIELD);
+        for (int i = 0; i < r.keys.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"');
+            appendName(sb, String.valueOf(r.keys[i]));
+            sb.append("\":\"");
+            Object val = properties.get(r.keys[i]);
+            r.values[i] = val;
+            if (val instanceof String) {
+                appendEscaped(sb, (String) val);
+            } else {
+                // 可变的CharSequence(如StringBuilder)内容可能变化, 不能复用输出
+                cacheable = false;
+                if (val instanceof CharSequence) {
+                    appendEscaped(sb, (CharSequence) val);
+                } else {
+                    appendEscaped(sb, String.valueOf(val));
+                }
+            }
+            sb.append('"');
+        }
+        sb.append('}');
+        r.text = cacheable ? sb.substring(start) : null;
+    }
+
+    /**
+     * 追加转义后的名称, 同一名称只转义一次
+     */
+    static void appendName(StringBuilder sb, String name) {
+        if (name == null) {
+            return;
+        }
+        String escaped = (String) ESCAPED_NAMES.get(name);
+        if (escaped == null) {
+            StringBuilder tmp = new StringBuilder(name.length() + 8);
+            appendEscaped(tmp, name);
+            escaped = tmp.length() == name.length() ? name : tmp.toString();
+            if (ESCAPED_NAMES.size() < MAX_CACHED_NAMES) {
+                ESCAPED_NAMES.put(name, escaped);
+            }
+        }
+        sb.append(escaped);
+    }
+
+    /**
+     * 把s按JSON字符串的规则转义后追加到sb中. s为null时不追加.
+     * 大多数字段不含需要转义的字符, 先扫描一遍, 不需要转义时整段追加
+     */
+    static void appendEscaped(StringBuilder sb, String s) {
+        if (s == null) {
+            return;
+        }
+        int len = s.length();
+        int i = 0;
+        while (i < len) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\' || c == '\u2028' || c == '\u2029') {
+                break;
+            }
+            i++;
+        }
+        if (i == len) {
+            sb.append(s);
+            return;
+        }
+        sb.append(s, 0, i);
+        appendEscaped(sb, s, i);
+    }
+
+    static void appendEscaped(StringBuilder sb, CharSequence s) {
+        if (s != null) {
+            appendEscaped(sb, s, 0);
+        }
+    }
+
+    /**
+     * 从from开始逐个字符转义, 不需要转义的连续字符整段追加
+     */
+    private static void appendEscaped(StringBuilder sb, CharSequence s, int from) {
+        int len = s.length();
+        int start = from;
+        for (int i = from; i < len; i++) {
+            char c = s.charAt(i);
+            String escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+            } else if (c == '\u2028' || c == '\u2029') {
+                // 行分隔符在JavaScript中不能直接出现在字符串里
+                escape = c == '\u2028' ? "\\u2028" : "\\u2029";
+            } else {
+                continue;
+            }
+            if (escape == null) {
+                continue;
+            }
+            if (i > start) {
+                sb.append(s, start, i);
+            }
+            sb.append(escape);
+            start = i + 1;
+        }
+        if (start < len) {
+            sb.append(s, start, len);
+        }
+    }
+
+    /**
+     * 某个线程上次输出的MDC: 排好序的key、对应的值和输出的文本
+     */
+    private static final class RenderedMdc {
+        Object[] keys = new Object[0];
+        Object[] values = new Object[0];
+        // 值中有可变对象时为null, 不能复用
+        String text;
+
+        boolean sameKeys(Map properties, int size) {
+            if (keys.length != size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!properties.containsKey(keys[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -75,7 +75,8 @@ public class LogManager1 {
 
     static {
         // 初始化repositorySelector, 并设置
-        Hierarchy h = new Hierarchy(new RootLogger((Level) Level.DEBUG));
+        // 使用Hierarchy1, 通过LogManager1获取的logger都是Logger1
+        Hierarchy1 h = new Hierarchy1(new RootLogger1((Level) Level.DEBUG));
         repositorySelector = new DefaultRepositorySelector(h);
 
         // 重写
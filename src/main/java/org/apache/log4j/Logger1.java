@@ -0,0 +1,1080 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.EventMDC;
+import org.apache.log4j.helpers.NullEnumeration;
+import org.apache.log4j.spi.HierarchyEventListener;
+import org.apache.log4j.spi.LoggerRepository;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Vector;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * @author clj
+ * Hierarchy1默认创建的logger. 继承log4j自带的Logger, 对外的用法完全相同(仍然通过Logger类型使用),
+ * 只替换了appender的管理和日志的分发.
+ *
+ * <p>appender保存在自己的AppenderAttachableImpl1中(父类的aai始终为null), 并发布不可变的appender快照:
+ * callAppenders只读取沿additivity链各logger的快照, 不再对每个logger加锁.
+ * 链上的logger不是Logger1时(如自定义LoggerFactory创建的logger), 按父类原来的方式加锁调用.
+ *
+ * <p>repository为Hierarchy1时, 按Hierarchy1的代数缓存本logger可输出的最低级别和分发表,
+ * 级别配置没有变化时判断级别只需一次比较, 不再遍历父logger; 分发时只调用threshold接受该级别的appender.
+ *
+ * <p>各级别(trace到fatal)都提供参数化的重载方法, 如<code>logger.info("order {} paid {}", orderId, amount)</code>:
+ * 模板中的"{}"依次替换为参数, 见{@link ParameterizedMessage}. 级别未开启时不创建消息对象, 开启时推迟到layout输出时才格式化.
+ * 两个以内的参数使用固定参数的方法, 超过两个时才使用可变参数(数组在调用前就已创建);
+ * long、double、boolean参数不装箱(int参数使用long的方法). 另有(String, Throwable)的重载,
+ * 使第二个参数为异常的调用仍然输出异常堆栈, 而不是与参数化的方法产生歧义.
+ * 这些方法在Logger类型上不存在, 使用时通过{@link #getLogger(String)}取得Logger1.
+ */
+public class Logger1 extends Logger {
+
+    /**
+     * The fully qualified name of the Logger1 class.
+     */
+    private static final String FQCN = Logger1.class.getName();
+
+    /**
+     * appender列表. 修改时持有本logger的锁
+     */
+    AppenderAttachableImpl1 attachedAppenders;
+
+    /**
+     * 当前发布的appender快照. callAppenders只读取该快照, 不获取任何锁;
+     * 修改appender列表或additivity时(持有本logger的锁)整体替换为新快照.
+     */
+    private volatile AppenderSnapshot appenderSnapshot = AppenderSnapshot.EMPTY;
+
+    /**
+     * 缓存的可输出的最低级别: 高32位为计算时Hierarchy1的代数, 低32位为 max(全局threshold, 有效level).
+     * 代数与Hierarchy1当前代数相同时缓存有效, setLevel/setThreshold/resetConfiguration都会使代数加1.
+     */
+    private volatile long levelCache;
+
+    /**
+     * 缓存的分发表: 本logger可达的appender(沿additivity链)按级别过滤后的数组, 以及其中threshold最低的级别.
+     * 依赖appender列表、additivity(变化时使Hierarchy1的代数加1)、AppenderSkeleton1的threshold(有自己的代数)
+     * 和log4j自带AppenderSkeleton的threshold(分发表中保存创建时的值, 使用前比较).
+     */
+    private volatile DispatchTable dispatchTable;
+
+    protected Logger1(String name) {
+        super(name);
+    }
+
+    /**
+     * 通过LogManager1取得Logger1类型的logger, 以便调用参数化、Supplier等Logger中没有的重载方法
+     */
+    public static Logger1 getLogger(String name) {
+        return asLogger1(LogManager1.getLogger(name));
+    }
+
+    /**
+     * 见{@link #getLogger(String)}, 以clazz的全限定名作为logger名称
+     */
+    public static Logger1 getLogger(Class clazz) {
+        return asLogger1(LogManager1.getLogger(clazz));
+    }
+
+    private static Logger1 asLogger1(Logger logger) {
+        if (logger instanceof Logger1) {
+            return (Logger1) logger;
+        }
+        // 自定义的LoggerRepository或LoggerFactory创建的不是Logger1
+        throw new IllegalStateException("Logger [" + logger.getName() + "] is a " + logger.getClass().getName()
+                + ", not a Logger1. Check the logger factory of the repository.");
+    }
+
+    public void trace(Object message) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, message, null);
+    }
+
+    public void trace(Object message, Throwable t) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, message, t);
+    }
+
+    public void trace(String message, Throwable t) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, message, t);
+    }
+
+    public void trace(String template, Object arg) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg));
+    }
+
+    public void trace(String template, Object arg0, Object arg1) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void trace(String template, Object... args) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, args));
+    }
+
+    public void trace(String template, long arg) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg));
+    }
+
+    public void trace(String template, double arg) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg));
+    }
+
+    public void trace(String template, boolean arg) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg));
+    }
+
+    public void trace(String template, Object arg0, long arg1) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void trace(String template, long arg0, long arg1) {
+        if (isLoggable(Level.TRACE_INT))
+            forcedLog(FQCN, Level.TRACE, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void debug(Object message) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, message, null);
+    }
+
+    public void debug(Object message, Throwable t) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, message, t);
+    }
+
+    public void debug(String message, Throwable t) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, message, t);
+    }
+
+    public void debug(String template, Object arg) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg));
+    }
+
+    public void debug(String template, Object arg0, Object arg1) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void debug(String template, Object... args) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, args));
+    }
+
+    public void debug(String template, long arg) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg));
+    }
+
+    public void debug(String template, double arg) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg));
+    }
+
+    public void debug(String template, boolean arg) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg));
+    }
+
+    public void debug(String template, Object arg0, long arg1) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void debug(String template, long arg0, long arg1) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    /**
+     * 以DEBUG级别输出由messageSupplier延迟生成的消息. 级别未开启时不调用messageSupplier;
+     * 开启时也只在有appender输出这条日志(layout格式化消息)时才调用, 且最多调用一次.
+     * 代替在外面判断isDebugEnabled(), 适合需要序列化整个对象等开销较大的消息.
+     */
+    public void debug(Supplier<?> messageSupplier) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, messageSupplier == null ? null : new SuppliedMessage(messageSupplier), null);
+    }
+
+    /**
+     * 见{@link #debug(Supplier)}, 同时输出异常t的堆栈
+     */
+    public void debug(Supplier<?> messageSupplier, Throwable t) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, messageSupplier == null ? null : new SuppliedMessage(messageSupplier), t);
+    }
+
+    /**
+     * 见{@link #debug(Supplier)}, 消息由formatter.apply(argument)生成. 用到的对象作为argument传入,
+     * formatter就不需要捕获局部变量(如<code>logger.debug(r -> r.dump(), request)</code>),
+     * 编译后是同一个lambda对象, 级别未开启时调用点没有任何对象分配
+     */
+    public <T> void debug(Function<? super T, ?> formatter, T argument) {
+        if (isLoggable(Level.DEBUG_INT))
+            forcedLog(FQCN, Level.DEBUG, formatter == null ? null : new SuppliedMessage(formatter, argument), null);
+    }
+
+    public void info(Object message) {
+        // 判断日志级别是否 >= 全局日志级别, 且 >= 本logger继承体系中有效的level, 不满足则退出.
+        // 两者中较高的级别缓存在本logger中, 级别配置没有变化时只需一次比较
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, message, null);
+    }
+
+    public void info(Object message, Throwable t) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, message, t);
+    }
+
+    public void info(String message, Throwable t) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, message, t);
+    }
+
+    public void info(String template, Object arg) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg));
+    }
+
+    public void info(String template, Object arg0, Object arg1) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void info(String template, Object... args) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, args));
+    }
+
+    public void info(String template, long arg) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg));
+    }
+
+    public void info(String template, double arg) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg));
+    }
+
+    public void info(String template, boolean arg) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg));
+    }
+
+    public void info(String template, Object arg0, long arg1) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void info(String template, long arg0, long arg1) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    /**
+     * 以INFO级别输出由messageSupplier延迟生成的消息. 级别未开启时不调用messageSupplier;
+     * 开启时也只在有appender输出这条日志(layout格式化消息)时才调用, 且最多调用一次.
+     * 代替在外面判断isInfoEnabled(), 适合需要序列化整个对象等开销较大的消息.
+     */
+    public void info(Supplier<?> messageSupplier) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, messageSupplier == null ? null : new SuppliedMessage(messageSupplier), null);
+    }
+
+    /**
+     * 见{@link #info(Supplier)}, 同时输出异常t的堆栈
+     */
+    public void info(Supplier<?> messageSupplier, Throwable t) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, messageSupplier == null ? null : new SuppliedMessage(messageSupplier), t);
+    }
+
+    /**
+     * 见{@link #info(Supplier)}, 消息由formatter.apply(argument)生成. 用到的对象作为argument传入,
+     * formatter就不需要捕获局部变量(如<code>logger.info(r -> r.dump(), request)</code>),
+     * 编译后是同一个lambda对象, 级别未开启时调用点没有任何对象分配
+     */
+    public <T> void info(Function<? super T, ?> formatter, T argument) {
+        if (isLoggable(Level.INFO_INT))
+            forcedLog(FQCN, Level.INFO, formatter == null ? null : new SuppliedMessage(formatter, argument), null);
+    }
+
+    public void warn(Object message) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, message, null);
+    }
+
+    public void warn(Object message, Throwable t) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, message, t);
+    }
+
+    public void warn(String message, Throwable t) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, message, t);
+    }
+
+    public void warn(String template, Object arg) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg));
+    }
+
+    public void warn(String template, Object arg0, Object arg1) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void warn(String template, Object... args) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, args));
+    }
+
+    public void warn(String template, long arg) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg));
+    }
+
+    public void warn(String template, double arg) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg));
+    }
+
+    public void warn(String template, boolean arg) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg));
+    }
+
+    public void warn(String template, Object arg0, long arg1) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void warn(String template, long arg0, long arg1) {
+        if (isLoggable(Level.WARN_INT))
+            forcedLog(FQCN, Level.WARN, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void error(Object message) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, message, null);
+    }
+
+    public void error(Object message, Throwable t) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, message, t);
+    }
+
+    public void error(String message, Throwable t) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, message, t);
+    }
+
+    public void error(String template, Object arg) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg));
+    }
+
+    public void error(String template, Object arg0, Object arg1) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void error(String template, Object... args) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, args));
+    }
+
+    public void error(String template, long arg) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg));
+    }
+
+    public void error(String template, double arg) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg));
+    }
+
+    public void error(String template, boolean arg) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg));
+    }
+
+    public void error(String template, Object arg0, long arg1) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void error(String template, long arg0, long arg1) {
+        if (isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void fatal(Object message) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, message, null);
+    }
+
+    public void fatal(Object message, Throwable t) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, message, t);
+    }
+
+    public void fatal(String message, Throwable t) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, message, t);
+    }
+
+    public void fatal(String template, Object arg) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg));
+    }
+
+    public void fatal(String template, Object arg0, Object arg1) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void fatal(String template, Object... args) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, args));
+    }
+
+    public void fatal(String template, long arg) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg));
+    }
+
+    public void fatal(String template, double arg) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg));
+    }
+
+    public void fatal(String template, boolean arg) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg));
+    }
+
+    public void fatal(String template, Object arg0, long arg1) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void fatal(String template, long arg0, long arg1) {
+        if (isLoggable(Level.FATAL_INT))
+            forcedLog(FQCN, Level.FATAL, new ParameterizedMessage(template, arg0, arg1));
+    }
+
+    public void assertLog(boolean assertion, String msg) {
+        if (!assertion && isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, msg, null);
+    }
+
+    /**
+     * 与{@link #assertLog(boolean, String)}相同, 但只在<code>assertion</code>为false、ERROR级别开启,
+     * 且有appender输出这条日志时才调用msgSupplier生成消息
+     */
+    public void assertLog(boolean assertion, Supplier<String> msgSupplier) {
+        if (!assertion && isLoggable(Level.ERROR_INT))
+            forcedLog(FQCN, Level.ERROR, msgSupplier == null ? null : new SuppliedMessage(msgSupplier), null);
+    }
+
+    /**
+     * This generic form is intended to be used by wrappers.
+     */
+    public void log(Priority priority, Object message, Throwable t) {
+        if (isLoggable(priority.level))
+            forcedLog(FQCN, priority, message, t);
+    }
+
+    /**
+     * This generic form is intended to be used by wrappers.
+     */
+    public void log(Priority priority, Object message) {
+        if (isLoggable(priority.level))
+            forcedLog(FQCN, priority, message, null);
+    }
+
+    /**
+     * This is the most generic printing method. It is intended to be
+     * invoked by <b>wrapper</b> classes.
+     */
+    public void log(String callerFQCN, Priority level, Object message, Throwable t) {
+        if (isLoggable(level.level))
+            forcedLog(callerFQCN, level, message, t);
+    }
+
+    /**
+     * Log a localized message. The user supplied parameter
+     * <code>key</code> is replaced by its localized version from the
+     * resource bundle.
+     */
+    public void l7dlog(Priority priority, String key, Throwable t) {
+        if (isLoggable(priority.level)) {
+            String msg = getResourceBundleString(key);
+            // if message corresponding to 'key' could not be found in the
+            // resource bundle, then default to 'key'.
+            if (msg == null) {
+                msg = key;
+            }
+            forcedLog(FQCN, priority, msg, t);
+        }
+    }
+
+    /**
+     * Log a localized and parameterized message. First, the user
+     * supplied <code>key</code> is searched in the resource
+     * bundle. Next, the resulting pattern is formatted using
+     * {@link java.text.MessageFormat#format(String, Object[])} method with the
+     * user supplied object array <code>params</code>.
+     */
+    public void l7dlog(Priority priority, String key, Object[] params, Throwable t) {
+        if (isLoggable(priority.level)) {
+            String pattern = getResourceBundleString(key);
+            String msg;
+            if (pattern == null)
+                msg = key;
+            else
+                msg = java.text.MessageFormat.format(pattern, params);
+            forcedLog(FQCN, priority, msg, t);
+        }
+    }
+
+    /**
+     * 与{@link #l7dlog(Priority, String, Object[], Throwable)}相同, 但参数由paramsSupplier提供:
+     * 资源文件中的模式在这里查找, 参数的生成和MessageFormat格式化推迟到有appender输出这条日志时, 最多执行一次
+     */
+    public void l7dlog(Priority priority, String key, Supplier<Object[]> paramsSupplier, Throwable t) {
+        if (isLoggable(priority.level)) {
+            String pattern = getResourceBundleString(key);
+            if (pattern == null)
+                forcedLog(FQCN, priority, key, t);
+            else
+                forcedLog(FQCN, priority, new SuppliedMessage(pattern, paramsSupplier), t);
+        }
+    }
+
+    public boolean isTraceEnabled() {
+        return isEnabled(Level.TRACE_INT);
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG_INT);
+    }
+
+    public boolean isInfoEnabled() {
+        return isEnabled(Level.INFO_INT);
+    }
+
+    public boolean isEnabledFor(Priority level) {
+        return isEnabled(level.level);
+    }
+
+    /**
+     * 判断级别为level的日志是否可以输出, 等价于
+     * <code>!repository.isDisabled(level) && level >= getEffectiveLevel().level</code>.
+     * repository为Hierarchy1时使用缓存的结果, 缓存有效时不再遍历父logger.
+     */
+    private boolean isEnabled(int level) {
+        LoggerRepository r = this.repository;
+        if (r instanceof Hierarchy1 && ((Hierarchy1) r).isCacheable()) {
+            Hierarchy1 h = (Hierarchy1) r;
+            // 必须先读代数, 再读级别配置
+            int generation = h.getGeneration();
+            long cached = this.levelCache;
+            if ((int) (cached >>> 32) != generation) {
+                int enabled = Math.max(h.thresholdInt, getEffectiveLevel().level);
+                cached = ((long) generation << 32) | (enabled & 0xFFFFFFFFL);
+                this.levelCache = cached;
+            }
+            return level >= (int) cached;
+        }
+        if (r.isDisabled(level)) {
+            return false;
+        }
+        return level >= getEffectiveLevel().level;
+    }
+
+    /**
+     * 判断级别为level的日志是否需要创建LoggingEvent: 级别开启, 并且至少有一个可达的appender的threshold接受该级别.
+     * 日志方法使用这个判断; isXxxEnabled仍然只比较级别, 行为与原来相同.
+     */
+    private boolean isLoggable(int level) {
+        return isEnabled(level) && level >= getAcceptedLevel();
+    }
+
+    /**
+     * 可达的appender中最低的threshold. 没有缓存的分发表时不跳过任何级别
+     */
+    private int getAcceptedLevel() {
+        DispatchTable table = getDispatchTable();
+        return table == null ? Integer.MIN_VALUE : table.acceptedLevel;
+    }
+
+    /**
+     * 当前有效的分发表, 代数变化或log4j自带appender的threshold变化时重建.
+     * repository不是Hierarchy1, 或其中有不是Logger1的logger时, 没有代数可以判断是否过期, 返回null
+     */
+    private DispatchTable getDispatchTable() {
+        LoggerRepository r = this.repository;
+        if (!(r instanceof Hierarchy1) || !((Hierarchy1) r).isCacheable()) {
+            return null;
+        }
+        // 与isEnabled相同, 先读代数再读appender快照
+        int generation = ((Hierarchy1) r).getGeneration();
+        int thresholdGeneration = AppenderSkeleton1.getThresholdGeneration();
+        DispatchTable table = this.dispatchTable;
+        if (table == null || table.generation != generation || table.thresholdGeneration != thresholdGeneration
+                || table.jarThresholdsChanged()) {
+            Appender[] all = collectAppenders();
+            if (all == null) {
+                return null;
+            }
+            table = new DispatchTable(generation, thresholdGeneration, all);
+            this.dispatchTable = table;
+        }
+        return table;
+    }
+
+    /**
+     * 按调用顺序收集本logger及其additivity链上的所有appender. 同一appender挂在多个logger上时保留多次, 与逐级调用一致.
+     * 链上有不是Logger1的logger时返回null
+     */
+    private Appender[] collectAppenders() {
+        List all = new ArrayList();
+        for (Category c = this; c != null; c = c.parent) {
+            if (!(c instanceof Logger1)) {
+                return null;
+            }
+            AppenderSnapshot snapshot = ((Logger1) c).appenderSnapshot;
+            Appender[] appenders = snapshot.appenders;
+            for (int i = 0; i < appenders.length; i++) {
+                all.add(appenders[i]);
+            }
+            if (!snapshot.additive) {
+                break;
+            }
+        }
+        return (Appender[]) all.toArray(new Appender[all.size()]);
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+        levelChanged();
+    }
+
+    /**
+     * @deprecated Please use {@link #setLevel} instead.
+     */
+    public void setPriority(Priority priority) {
+        this.level = (Level) priority;
+        levelChanged();
+    }
+
+    /**
+     * This method creates a new logging event and logs the event
+     * without further checks.
+     */
+    protected void forcedLog(String fqcn, Priority level, Object message, Throwable t) {
+        // 开启了事件复用, 且可达的appender都不会在输出后继续持有事件时, 使用当前线程的可变事件, 不创建新对象.
+        // 同一线程在分发过程中再次打印日志时acquire返回null, 仍然创建新事件
+        if (reusesEvents()) {
+            MutableLoggingEvent event = MutableLoggingEvent.acquire(fqcn, this, level, message, t);
+            if (event != null) {
+                try {
+                    dispatch(event);
+                } finally {
+                    event.release();
+                }
+                return;
+            }
+        }
+        // 将要输出的基础日志内容,level,logger等封装到LoggingEvent中
+        dispatch(new LoggingEvent(fqcn, this, level, message, t));
+    }
+
+    /**
+     * 在当前线程中同步分发事件, 分发期间layout可以直接读取当前线程的MDC, 见{@link EventMDC}
+     */
+    private void dispatch(LoggingEvent event) {
+        Object previous = EventMDC.beginDispatch(event);
+        try {
+            callAppenders(event);
+        } finally {
+            EventMDC.endDispatch(previous);
+        }
+    }
+
+    private boolean reusesEvents() {
+        LoggerRepository r = this.repository;
+        if (!(r instanceof Hierarchy1) || !((Hierarchy1) r).isReusableEvents()) {
+            return false;
+        }
+        DispatchTable table = getDispatchTable();
+        return table != null && table.reusesEvents();
+    }
+
+    /**
+     * 输出参数化的消息, 从参数中分离出的异常作为日志的异常
+     */
+    private void forcedLog(String fqcn, Priority level, ParameterizedMessage message) {
+        forcedLog(fqcn, level, message, message.getThrowable());
+    }
+
+    /**
+     * 级别配置发生变化, 使整个hierarchy中缓存的级别失效
+     */
+    private void levelChanged() {
+        if (repository instanceof Hierarchy1) {
+            ((Hierarchy1) repository).bumpGeneration();
+        }
+    }
+
+    /**
+     * Add <code>newAppender</code> to the list of appenders of this
+     * Category instance.
+     *
+     * <p>If <code>newAppender</code> is already in the list of
+     * appenders, then it won't be added again.
+     */
+    public synchronized void addAppender(Appender newAppender) {
+        if (attachedAppenders == null) {
+            attachedAppenders = new AppenderAttachableImpl1();
+        }
+        attachedAppenders.addAppender(newAppender);
+        publishAppenderSnapshot();
+        repository.fireAddAppenderEvent(this, newAppender);
+    }
+
+    /**
+     * Call the appenders in the hierrachy starting at
+     * <code>this</code>.  If no appenders could be found, emit a
+     * warning.
+     */
+    public void callAppenders(LoggingEvent event) {
+        DispatchTable table = getDispatchTable();
+        if (table == null) {
+            callAppendersOnChain(event);
+            return;
+        }
+        // 核心代码: 遍历分发表中接受该级别的appender, 执行appender. threshold不接受的appender不会被调用, 不需要获取其锁
+        Appender[] appenders = table.appendersFor(event.getLevel());
+        for (int i = 0; i < appenders.length; i++) {
+            appenders[i].doAppend(event);
+        }
+
+        // 本logger及其继承体系中, 一个appender都没有找到, 输出warn的警告日志(项目启动后只会执行一次)
+        if (table.appenderCount == 0) {
+            repository.emitNoAppenderWarning(this);
+        }
+    }
+
+    /**
+     * 没有缓存的分发表时(repository不是Hierarchy1, 或链上有不是Logger1的logger)直接沿继承体系调用appender
+     */
+    private void callAppendersOnChain(LoggingEvent event) {
+        int writes = 0;
+
+        // 递归本logger及其继承体系的logger. 只读取各logger发布的不可变快照, 不再对每个logger加锁
+        for (Category c = this; c != null; c = c.parent) {
+            if (!(c instanceof Logger1)) {
+                // 不是Logger1的logger没有快照, 与父类相同, 加锁调用其appender
+                synchronized (c) {
+                    if (c.aai != null) {
+                        writes += c.aai.appendLoopOnAppenders(event);
+                    }
+                    if (!c.additive) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            AppenderSnapshot snapshot = ((Logger1) c).appenderSnapshot;
+            // 核心代码: 遍历快照中的appender数组, 执行appender
+            Appender[] appenders = snapshot.appenders;
+            for (int i = 0; i < appenders.length; i++) {
+                appenders[i].doAppend(event);
+            }
+            writes += appenders.length;
+            // 若当前logger的additive为false, 则不再执行其父类logger, 结束日志输出
+            if (!snapshot.additive) {
+                break;
+            }
+        }
+
+        // 本logger及其继承体系中, 一个appender都没有找到, 输出warn的警告日志(项目启动后只会执行一次)
+        if (writes == 0) {
+            repository.emitNoAppenderWarning(this);
+        }
+    }
+
+    /**
+     * Get the appenders contained in this category as an {@link
+     * Enumeration}. If no appenders can be found, then a {@link NullEnumeration}
+     * is returned.
+     */
+    public synchronized Enumeration getAllAppenders() {
+        Enumeration e = attachedAppenders == null ? null : attachedAppenders.getAllAppenders();
+        return e == null ? NullEnumeration.getInstance() : e;
+    }
+
+    /**
+     * Look for the appender named as <code>name</code>.
+     *
+     * <p>Return the appender with that name if in the list. Return
+     * <code>null</code> otherwise.
+     */
+    public synchronized Appender getAppender(String name) {
+        if (attachedAppenders == null || name == null) {
+            return null;
+        }
+        return attachedAppenders.getAppender(name);
+    }
+
+    /**
+     * Is the appender passed as parameter attached to this category?
+     */
+    public boolean isAttached(Appender appender) {
+        AppenderAttachableImpl1 a = attachedAppenders;
+        return appender != null && a != null && a.isAttached(appender);
+    }
+
+    /**
+     * Remove all previously added appenders from this Category
+     * instance.
+     *
+     * <p>This is useful when re-reading configuration information.
+     */
+    public synchronized void removeAllAppenders() {
+        if (attachedAppenders != null) {
+            Vector appenders = new Vector();
+            for (Enumeration iter = attachedAppenders.getAllAppenders(); iter != null && iter.hasMoreElements(); ) {
+                appenders.add(iter.nextElement());
+            }
+            AppenderAttachableImpl1 old = attachedAppenders;
+            attachedAppenders = null;
+            // 先发布空快照, 再关闭appender, 避免新的日志事件继续分发到已关闭的appender
+            publishAppenderSnapshot();
+            old.removeAllAppenders();
+            for (Enumeration iter = appenders.elements(); iter.hasMoreElements(); ) {
+                fireRemoveAppenderEvent((Appender) iter.nextElement());
+            }
+        }
+    }
+
+    /**
+     * Remove the appender passed as parameter form the list of appenders.
+     */
+    public synchronized void removeAppender(Appender appender) {
+        if (appender == null || attachedAppenders == null) {
+            return;
+        }
+        boolean wasAttached = attachedAppenders.isAttached(appender);
+        attachedAppenders.removeAppender(appender);
+        publishAppenderSnapshot();
+        if (wasAttached) {
+            fireRemoveAppenderEvent(appender);
+        }
+    }
+
+    /**
+     * Remove the appender with the name passed as parameter form the
+     * list of appenders.
+     */
+    public synchronized void removeAppender(String name) {
+        if (name == null || attachedAppenders == null) {
+            return;
+        }
+        Appender appender = attachedAppenders.getAppender(name);
+        attachedAppenders.removeAppender(name);
+        publishAppenderSnapshot();
+        if (appender != null) {
+            fireRemoveAppenderEvent(appender);
+        }
+    }
+
+    /**
+     * Set the additivity flag for this Category instance.
+     */
+    public synchronized void setAdditivity(boolean additive) {
+        this.additive = additive;
+        publishAppenderSnapshot();
+    }
+
+    /**
+     * 根据当前的appender列表和additivity生成新快照并发布. 调用方必须持有本logger的锁.
+     */
+    private void publishAppenderSnapshot() {
+        Appender[] appenders = attachedAppenders == null
+                ? AppenderSnapshot.NO_APPENDERS : attachedAppenders.getAppenderArray();
+        appenderSnapshot = new AppenderSnapshot(appenders, additive);
+        // 子logger可达的appender也随之变化, 使各logger缓存的最低threshold失效
+        levelChanged();
+    }
+
+    /**
+     * 与父类相同: LoggerRepository没有fireRemoveAppenderEvent方法, 按repository的类型通知
+     */
+    private void fireRemoveAppenderEvent(final Appender appender) {
+        if (appender != null) {
+            if (repository instanceof Hierarchy1) {
+                ((Hierarchy1) repository).fireRemoveAppenderEvent(this, appender);
+            } else if (repository instanceof Hierarchy) {
+                ((Hierarchy) repository).fireRemoveAppenderEvent(this, appender);
+            } else if (repository instanceof HierarchyEventListener) {
+                ((HierarchyEventListener) repository).removeAppenderEvent(this, appender);
+            }
+        }
+    }
+
+    /**
+     * logger某一时刻的分发表: 可达的appender按标准级别(TRACE~FATAL)过滤后的数组, 创建后不再修改.
+     * AppenderSkeleton1和log4j自带的AppenderSkeleton按threshold过滤, 不接受的级别不会进入其同步的doAppend;
+     * 其他appender放在所有级别的数组中, 由其自己判断.
+     */
+    static final class DispatchTable {
+        private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR, Level.FATAL};
+        private static final AppenderSkeleton[] NO_JAR_APPENDERS = new AppenderSkeleton[0];
+
+        final int generation;
+        final int thresholdGeneration;
+        // 可达的appender总数(不按级别过滤), 为0时输出没有appender的警告
+        final int appenderCount;
+        // appender中最低的threshold, 低于该级别的日志没有appender会输出; 没有appender时不跳过
+        final int acceptedLevel;
+        private final Appender[] all;
+        private final Appender[][] byLevel = new Appender[LEVELS.length][];
+        // log4j自带的AppenderSkeleton(配置文件中的ConsoleAppender、RollingFileAppender等)及创建时的threshold.
+        // 它们的setThreshold不会通知, 每次使用分发表前比较, 不同时重建
+        private final AppenderSkeleton[] jarAppenders;
+        private final Priority[] jarThresholds;
+
+        DispatchTable(int generation, int thresholdGeneration, Appender[] all) {
+            this.generation = generation;
+            this.thresholdGeneration = thresholdGeneration;
+            this.all = all;
+            this.appenderCount = all.length;
+            List jar = new ArrayList();
+            int lowest = all.length == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            for (int i = 0; i < all.length; i++) {
+                if (all[i] instanceof AppenderSkeleton) {
+                    jar.add(all[i]);
+                }
+                Priority threshold = thresholdOf(all[i]);
+                lowest = Math.min(lowest, threshold == null ? Integer.MIN_VALUE : threshold.level);
+            }
+            this.acceptedLevel = lowest;
+            this.jarAppenders = jar.isEmpty() ? NO_JAR_APPENDERS
+                    : (AppenderSkeleton[]) jar.toArray(new AppenderSkeleton[jar.size()]);
+            this.jarThresholds = new Priority[jarAppenders.length];
+            for (int i = 0; i < jarAppenders.length; i++) {
+                jarThresholds[i] = jarAppenders[i].getThreshold();
+            }
+            for (int l = 0; l < LEVELS.length; l++) {
+                byLevel[l] = filter(all, LEVELS[l]);
+            }
+        }
+
+        /**
+         * appender的threshold. AppenderSkeleton1和log4j自带的AppenderSkeleton都有threshold,
+         * 其他appender返回null, 按接受所有级别处理
+         */
+        static Priority thresholdOf(Appender appender) {
+            if (appender instanceof AppenderSkeleton1) {
+                return ((AppenderSkeleton1) appender).getThreshold();
+            }
+            if (appender instanceof AppenderSkeleton) {
+                return ((AppenderSkeleton) appender).getThreshold();
+            }
+            return null;
+        }
+
+        /**
+         * 创建分发表之后, 是否有log4j自带appender的threshold被修改过
+         */
+        boolean jarThresholdsChanged() {
+            for (int i = 0; i < jarAppenders.length; i++) {
+                if (jarAppenders[i].getThreshold() != jarThresholds[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Appender[] filter(Appender[] all, Level level) {
+            List accepted = new ArrayList(all.length);
+            for (int i = 0; i < all.length; i++) {
+                Priority threshold = thresholdOf(all[i]);
+                if (threshold == null || level.isGreaterOrEqual(threshold)) {
+                    accepted.add(all[i]);
+                }
+            }
+            return accepted.size() == all.length ? all : (Appender[]) accepted.toArray(new Appender[accepted.size()]);
+        }
+
+        /**
+         * 可达的appender是否都可以接收复用的{@link MutableLoggingEvent}, 见AppenderSkeleton1.canReceiveReusableEvents.
+         * log4j自带的appender、layout、filter等会读取final的timeStamp字段, 复用的事件中该字段始终为0, 有任一个都不复用.
+         * filter、layout可以随时替换且不改变代数, 因此每次分发前检查, 不缓存结果
+         */
+        boolean reusesEvents() {
+            for (int i = 0; i < all.length; i++) {
+                if (!(all[i] instanceof AppenderSkeleton1) || !((AppenderSkeleton1) all[i]).canReceiveReusableEvents()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 接受level级别的appender. 自定义级别使用全部appender, 由doAppend判断threshold
+         */
+        Appender[] appendersFor(Level level) {
+            switch (level.level) {
+                case Level.TRACE_INT:
+                    return byLevel[0];
+                case Level.DEBUG_INT:
+                    return byLevel[1];
+                case Level.INFO_INT:
+                    return byLevel[2];
+                case Level.WARN_INT:
+                    return byLevel[3];
+                case Level.ERROR_INT:
+                    return byLevel[4];
+                case Level.FATAL_INT:
+                    return byLevel[5];
+                default:
+                    return all;
+            }
+        }
+    }
+
+    /**
+     * logger某一时刻的appender数组和additivity标识. 创建后不再修改, 可以在不加锁的情况下读取.
+     */
+    static final class AppenderSnapshot {
+        static final Appender[] NO_APPENDERS = new Appender[0];
+        static final AppenderSnapshot EMPTY = new AppenderSnapshot(NO_APPENDERS, true);
+
+        final Appender[] appenders;
+        final boolean additive;
+
+        AppenderSnapshot(Appender[] appenders, boolean additive) {
+            this.appenders = appenders;
+            this.additive = additive;
+        }
+    }
+}
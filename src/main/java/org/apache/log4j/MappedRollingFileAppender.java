@@ -0,0 +1,606 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.ByteBufferDestination;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.StringBuilderEncoder;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author clj
+ * 基于内存映射文件的滚动文件appender, 可以替代RollingFileAppender.
+ *
+ * <p>日志内容直接编码到文件的一段映射区域(MappedByteBuffer)中, 写满后从当前位置再映射下一段,
+ * 每段长度由regionLength指定(默认32MB). 写入映射区域的数据在进程崩溃时不会丢失(已在操作系统页缓存中),
+ * 后台线程每隔forceInterval毫秒调用一次force()把数据刷到磁盘, 因此不再需要每行flush.
+ * 写满的区域交给同一个后台线程force并解除映射, 打印日志的线程换区域时不等待磁盘.
+ *
+ * <p>滚动规则与RollingFileAppender相同, 配置项也相同, 只需替换类名:
+ * <pre>
+ * log4j.appender.rollingFile=org.apache.log4j.MappedRollingFileAppender
+ * log4j.appender.rollingFile.file=D://logs/myLog.log
+ * log4j.appender.rollingFile.maxFileSize=500MB
+ * log4j.appender.rollingFile.maxBackupIndex=2
+ * log4j.appender.rollingFile.regionLength=32MB
+ * log4j.appender.rollingFile.forceInterval=1000
+ * </pre>
+ *
+ * <p>映射区域会使文件长度超过实际内容, 关闭或滚动时会把文件截断到实际长度.
+ * 若进程异常退出, 文件末尾可能残留未使用的0字节, 下次以append方式打开时会先跳过这些0字节.
+ */
+public class MappedRollingFileAppender extends AppenderSkeleton1 {
+
+    public static final long DEFAULT_REGION_LENGTH = 32 * 1024 * 1024;
+    public static final long DEFAULT_FORCE_INTERVAL = 1000;
+
+    private static final int BUF_SIZE = 256;
+    private static final int MAX_CAPACITY = 1024;
+
+    /**
+     * 打开已有文件时, 向前查找实际内容结尾时每次读取的字节数
+     */
+    private static final int SCAN_SIZE = 8 * 1024;
+
+    protected String fileName;
+    protected boolean fileAppend = true;
+    protected String encoding;
+    protected long maxFileSize = 10 * 1024 * 1024;
+    protected int maxBackupIndex = 1;
+
+    private long regionLength = DEFAULT_REGION_LENGTH;
+    private long forceInterval = DEFAULT_FORCE_INTERVAL;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * 当前映射区域, 以及它在文件中的起始位置. 映射区域的替换同时受appender锁和mapLock保护
+     */
+    private MappedByteBuffer mapped;
+    private long regionStart;
+    private final Object mapLock = new Object();
+
+    /**
+     * 滚动文件失败时, 推迟到文件达到该长度再尝试
+     */
+    private long nextRollover;
+
+    private StringBuilderEncoder encoder;
+    private StringBuilder formatBuffer = new StringBuilder(BUF_SIZE);
+    private final ByteBufferDestination destination = new RegionDestination();
+
+    private ScheduledExecutorService forceExecutor;
+
+    /**
+     * 已被替换、等待force并解除映射的区域. 加入时不加锁, 处理时持有retiredLock,
+     * 关闭文件时据此等待后台线程正在处理的区域
+     */
+    private final ConcurrentLinkedQueue retired = new ConcurrentLinkedQueue();
+    private final Object retiredLock = new Object();
+    private final Runnable releaseRetired = new Runnable() {
+        public void run() {
+            releaseRetired(true);
+        }
+    };
+
+    /**
+     * 映射下一段区域失败后为true, 不再写入当前文件, 直到重新打开文件(setFile)
+     */
+    private boolean writeFailed;
+    private ByteBuffer discardBuffer;
+
+    public MappedRollingFileAppender() {
+    }
+
+    public MappedRollingFileAppender(Layout layout, String filename, boolean append) throws IOException {
+        this.layout = layout;
+        this.fileAppend = append;
+        setFile(filename, append);
+        activateOptions();
+    }
+
+    public void setFile(String file) {
+        this.fileName = file.trim();
+    }
+
+    public String getFile() {
+        return fileName;
+    }
+
+    public void setAppend(boolean append) {
+        this.fileAppend = append;
+    }
+
+    public boolean getAppend() {
+        return fileAppend;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * 文件最大容量, 后缀可以为KB, MB, GB
+     */
+    public void setMaxFileSize(String value) {
+        maxFileSize = OptionConverter1.toFileSize(value, maxFileSize + 1);
+    }
+
+    public void setMaximumFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public long getMaximumFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxBackupIndex(int maxBackups) {
+        this.maxBackupIndex = maxBackups;
+    }
+
+    public int getMaxBackupIndex() {
+        return maxBackupIndex;
+    }
+
+    /**
+     * 每次映射的区域长度, 后缀可以为KB, MB, GB. 默认32MB
+     */
+    public void setRegionLength(String value) {
+        regionLength = OptionConverter1.toFileSize(value, DEFAULT_REGION_LENGTH);
+    }
+
+    public void setMappedRegionLength(long regionLength) {
+        this.regionLength = regionLength;
+    }
+
+    public long getMappedRegionLength() {
+        return regionLength;
+    }
+
+    /**
+     * 后台调用force()的间隔(毫秒), 默认1000. 小于等于0时没有后台线程, 写满的区域直接解除映射由操作系统回写,
+     * 只在滚动和关闭时把整个文件刷到磁盘
+     */
+    public void setForceInterval(long forceInterval) {
+        this.forceInterval = forceInterval;
+    }
+
+    public long getForceInterval() {
+        return forceInterval;
+    }
+
+    public void activateOptions() {
+        if (fileName != null && channel == null) {
+            try {
+                setFile(fileName, fileAppend);
+            } catch (IOException e) {
+                errorHandler.error("setFile(" + fileName + "," + fileAppend + ") call failed.",
+                        e, ErrorCode.FILE_OPEN_FAILURE);
+            }
+        } else if (fileName == null) {
+            LogLog.warn("File option not set for appender [" + name + "].");
+            LogLog.warn("Are you using MappedRollingFileAppender instead of ConsoleAppender?");
+        }
+    }
+
+    /**
+     * 第一次映射区域成功后启动后台force线程
+     */
+    private void startForceExecutor() {
+        if (forceInterval > 0 && forceExecutor == null && !closed) {
+            forceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MappedRollingFileAppender-" + name + "-force");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            forceExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    force();
+                }
+            }, forceInterval, forceInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 打开文件并映射第一段区域. append为true时从实际内容结尾继续写入, 否则清空文件
+     */
+    public synchronized void setFile(String fileName, boolean append) throws IOException {
+        LogLog.debug("setFile called: " + fileName + ", " + append);
+        reset();
+        File file = new File(fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        FileChannel ch = f.getChannel();
+        long start = 0;
+        try {
+            if (append) {
+                start = findContentEnd(ch);
+            }
+            ch.truncate(start);
+            this.raf = f;
+            this.channel = ch;
+            this.fileName = fileName;
+            this.fileAppend = append;
+            this.encoder = new StringBuilderEncoder(StringBuilderEncoder.toCharset(encoding));
+            this.nextRollover = maxFileSize;
+            this.writeFailed = false;
+            remap(start);
+        } catch (IOException e) {
+            this.raf = null;
+            this.channel = null;
+            f.close();
+            throw e;
+        }
+        LogLog.debug("setFile ended");
+        startForceExecutor();
+        writeHeader();
+    }
+
+    /**
+     * 跳过文件末尾残留的0字节(上次进程异常退出时映射区域未被截断), 返回实际内容的长度
+     */
+    private static long findContentEnd(FileChannel ch) throws IOException {
+        long end = ch.size();
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_SIZE);
+        while (end > 0) {
+            long pos = Math.max(0, end - SCAN_SIZE);
+            buf.clear();
+            buf.limit((int) (end - pos));
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = buf.position() - 1; i >= 0; i--) {
+                if (buf.get(i) != 0) {
+                    return pos + i + 1;
+                }
+            }
+            end = pos;
+        }
+        return 0;
+    }
+
+    protected void append(LoggingEvent event) {
+        if (!checkEntryConditions()) {
+            return;
+        }
+        subAppend(event);
+        if (fileName != null && length() >= maxFileSize && length() >= nextRollover) {
+            rollOver();
+        }
+    }
+
+    protected boolean checkEntryConditions() {
+        if (this.closed) {
+            LogLog.warn("Not allowed to write to a closed appender.");
+            return false;
+        }
+        if (this.mapped == null) {
+            errorHandler.error("No output file set for the appender named [" + name + "].");
+            return false;
+        }
+        if (this.writeFailed) {
+            // 错误已在映射失败时报告
+            return false;
+        }
+        if (this.layout == null) {
+            errorHandler.error("No layout set for the appender named [" + name + "].");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 格式化内容和异常信息写入复用的StringBuilder, 再直接编码到映射区域中
+     */
+    protected void subAppend(LoggingEvent event) {
+        StringBuilder sb = formatBuffer;
+        sb.setLength(0);
+        if (layout instanceof GarbageFreeLayout) {
+            ((GarbageFreeLayout) layout).format(sb, event);
+        } else {
+            sb.append(layout.format(event));
+        }
+        if (layout.ignoresThrowable()) {
+            String[] s = event.getThrowableStrRep();
+            if (s != null) {
+                int len = s.length;
+                for (int i = 0; i < len; i++) {
+                    sb.append(s[i]).append(Layout.LINE_SEP);
+                }
+            }
+        }
+        encoder.encode(sb, destination);
+        if (sb.capacity() > MAX_CAPACITY) {
+            formatBuffer = new StringBuilder(BUF_SIZE);
+        }
+    }
+
+    /**
+     * 当前已写入的实际内容长度
+     */
+    private long length() {
+        return regionStart + mapped.position();
+    }
+
+    /**
+     * 从文件的position位置开始映射新的区域. 旧区域交给后台线程force并解除映射, 不在打印日志的线程中等待磁盘
+     */
+    private void remap(long position) throws IOException {
+        MappedByteBuffer next = channel.map(FileChannel.MapMode.READ_WRITE, position, regionLength);
+        MappedByteBuffer old;
+        synchronized (mapLock) {
+            old = mapped;
+            mapped = next;
+            regionStart = position;
+        }
+        if (old != null) {
+            retired.add(old);
+            if (forceExecutor != null) {
+                forceExecutor.execute(releaseRetired);
+            } else {
+                releaseRetired(false);
+            }
+        }
+    }
+
+    /**
+     * 解除已替换区域的映射, force为true时先force. 同一区域只会被一个线程取出处理
+     */
+    private void releaseRetired(boolean force) {
+        synchronized (retiredLock) {
+            MappedByteBuffer old;
+            while ((old = (MappedByteBuffer) retired.poll()) != null) {
+                if (force) {
+                    old.force();
+                }
+                unmap(old);
+            }
+        }
+    }
+
+    /**
+     * 由后台线程定期调用, 把映射区域中的修改刷到磁盘
+     */
+    public void force() {
+        synchronized (mapLock) {
+            if (mapped != null) {
+                mapped.force();
+            }
+        }
+    }
+
+    /**
+     * 按RollingFileAppender的规则滚动: 删除最旧的备份, 依次重命名file.i为file.(i+1), 当前文件重命名为file.1
+     */
+    public void rollOver() {
+        File target;
+        File file;
+
+        LogLog.debug("rolling over count=" + length());
+        LogLog.debug("maxBackupIndex=" + maxBackupIndex);
+
+        boolean renameSucceeded = true;
+        if (maxBackupIndex > 0) {
+            file = new File(fileName + '.' + maxBackupIndex);
+            if (file.exists()) {
+                renameSucceeded = file.delete();
+            }
+
+            for (int i = maxBackupIndex - 1; i >= 1 && renameSucceeded; i--) {
+                file = new File(fileName + "." + i);
+                if (file.exists()) {
+                    target = new File(fileName + '.' + (i + 1));
+                    LogLog.debug("Renaming file " + file + " to " + target);
+                    renameSucceeded = file.renameTo(target);
+                }
+            }
+
+            if (renameSucceeded) {
+                target = new File(fileName + "." + 1);
+                // 必须先解除映射并关闭文件, 否则Windows下无法重命名
+                closeFile();
+                file = new File(fileName);
+                LogLog.debug("Renaming file " + file + " to " + target);
+                renameSucceeded = file.renameTo(target);
+                if (!renameSucceeded) {
+                    try {
+                        setFile(fileName, true);
+                    } catch (IOException e) {
+                        if (e instanceof InterruptedIOException) {
+                            Thread.currentThread().interrupt();
+                        }
+                        LogLog.error("setFile(" + fileName + ", true) call failed.", e);
+                    }
+                }
+            }
+        }
+
+        if (renameSucceeded) {
+            try {
+                setFile(fileName, false);
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                LogLog.error("setFile(" + fileName + ", false) call failed.", e);
+            }
+        } else if (mapped != null) {
+            // 重命名失败(如文件被占用), 继续写当前文件, 写满maxFileSize后再尝试
+            nextRollover = length() + maxFileSize;
+        }
+    }
+
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (forceExecutor != null) {
+            forceExecutor.shutdownNow();
+            forceExecutor = null;
+        }
+        writeFooter();
+        reset();
+    }
+
+    protected void reset() {
+        closeFile();
+        this.encoder = null;
+    }
+
+    /**
+     * force并解除映射(包括还没被后台线程处理的旧区域), 把文件截断到实际内容长度后关闭
+     */
+    protected void closeFile() {
+        if (channel == null) {
+            return;
+        }
+        long length = length();
+        // 后台线程可能已被close停止, 剩下的旧区域在这里处理; 正在处理的区域等它完成, 保证重命名前已全部解除映射
+        releaseRetired(true);
+        synchronized (mapLock) {
+            mapped.force();
+            unmap(mapped);
+            mapped = null;
+        }
+        try {
+            // 没有后台线程时旧区域解除映射前没有force
+            channel.force(false);
+        } catch (IOException e) {
+            LogLog.error("Could not force " + fileName, e);
+        }
+        try {
+            channel.truncate(length);
+        } catch (IOException e) {
+            LogLog.error("Could not truncate " + fileName + " to " + length, e);
+        }
+        try {
+            raf.close();
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException) {
+                Thread.currentThread().interrupt();
+            }
+            LogLog.error("Could not close " + fileName, e);
+        }
+        raf = null;
+        channel = null;
+        regionStart = 0;
+    }
+
+    protected void writeHeader() {
+        if (layout != null) {
+            String h = layout.getHeader();
+            if (h != null && mapped != null) {
+                encoder.encode(h, destination);
+            }
+        }
+    }
+
+    protected void writeFooter() {
+        if (layout != null) {
+            String f = layout.getFooter();
+            if (f != null && mapped != null) {
+                encoder.encode(f, destination);
+            }
+        }
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    /**
+     * 格式化后复制到映射区域即返回, 不持有事件; 时间戳由layout通过MutableLoggingEvent.timeStampOf读取
+     */
+    protected boolean supportsReusableEvents() {
+        return true;
+    }
+
+    /**
+     * 编码器写满当前映射区域时, 从区域结尾继续映射下一段
+     */
+    private class RegionDestination implements ByteBufferDestination {
+
+        public ByteBuffer getByteBuffer() {
+            return mapped;
+        }
+
+        public ByteBuffer drain(ByteBuffer buf) {
+            if (!writeFailed) {
+                try {
+                    remap(regionStart + buf.position());
+                    return mapped;
+                } catch (IOException e) {
+                    if (e instanceof InterruptedIOException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    errorHandler.error("Failed to map next region of " + fileName + ".", e, ErrorCode.WRITE_FAILURE);
+                    writeFailed = true;
+                }
+            }
+            // 映射失败: 已写入区域的内容保持不变(当前事件只写入了区域能容纳的部分),
+            // 剩余字节写入丢弃用的缓冲区, 让编码器结束当前事件, 之后的事件由checkEntryConditions拒绝
+            if (discardBuffer == null) {
+                discardBuffer = ByteBuffer.allocate(BUF_SIZE);
+            }
+            discardBuffer.clear();
+            return discardBuffer;
+        }
+    }
+
+    /**
+     * 立即解除映射. JDK没有公开的API, Java 9及以上使用Unsafe.invokeCleaner, Java 8使用DirectBuffer.cleaner().
+     * 解除失败时只能等待GC回收, 不影响正确性.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+            if (invokeCleaner != null) {
+                Field f = unsafeClass.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                invokeCleaner.invoke(f.get(null), buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            LogLog.debug("Could not unmap buffer, leaving it to the garbage collector.", e);
+        }
+    }
+}
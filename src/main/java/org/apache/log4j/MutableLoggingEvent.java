@@ -0,0 +1,239 @@
+package org.apache.log4j;
+
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggerRepository;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RendererSupport;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+/**
+ * @author clj
+ * 每个线程复用的可变日志事件, 用于同步输出(Logger1.forcedLog -> callAppenders).
+ *
+ * <p>同步输出时事件只在callAppenders期间存在, 每次新建LoggingEvent(以及其中的各个懒加载字段)都是多余的分配.
+ * Hierarchy1开启reusableEvents后, forcedLog通过{@link #acquire}取得当前线程的事件并重置各字段,
+ * 分发结束后{@link #release}. 同一线程在分发过程中再次打印日志(如appender内部打印日志)时,
+ * 事件正在使用中, acquire返回null, 由调用方创建新的LoggingEvent.
+ *
+ * <p>需要在callAppenders返回后继续持有事件的appender(异步、缓冲等), 必须先用{@link #snapshot}复制为不可变的事件.
+ *
+ * <p>事件内容保存在本类自己的字段中, 父类的字段始终为空, 通过覆盖父类的getter对外提供.
+ * 父类中final的部分无法覆盖: 公共字段timeStamp、fqnOfCategoryClass、categoryName以及getTimeStamp、
+ * locationInformationExists、setProperty. 读取时间戳要使用{@link #timeStampOf}, 因此只有声明支持的appender
+ * (且没有filter、自定义的errorHandler和layout)才会收到复用的事件, 见AppenderSkeleton1.supportsReusableEvents.
+ */
+public final class MutableLoggingEvent extends LoggingEvent {
+
+    private static final ThreadLocal CURRENT = new ThreadLocal() {
+        protected Object initialValue() {
+            return new MutableLoggingEvent(Thread.currentThread());
+        }
+    };
+
+    // 持有本事件的线程, 事件只在该线程中分发
+    private final Thread owner;
+
+    // 是否正在分发中, 用于防止同一线程重入时覆盖正在使用的事件
+    private boolean inUse;
+
+    // 每次acquire加1, 用来区分复用的同一对象上先后的不同事件
+    private long sequence;
+
+    private String fqcn;
+    private Category logger;
+    private String loggerName;
+    private Priority level;
+    private Object message;
+    private long eventTimeStamp;
+    private String renderedMessage;
+    private String threadName;
+    private String ndc;
+    private boolean ndcLookupRequired;
+    private Hashtable mdcCopy;
+    private boolean mdcCopyLookupRequired;
+    private ThrowableInformation throwableInfo;
+    private LocationInfo locationInfo;
+
+    private MutableLoggingEvent(Thread owner) {
+        super(null, null, 0L, null, null, null, null, null, null, null);
+        this.owner = owner;
+    }
+
+    /**
+     * 取得当前线程的可变事件并按参数重置, 与new LoggingEvent(fqcn, logger, level, message, t)等价.
+     * 事件正在使用中(重入)时返回null. 使用完必须调用release
+     */
+    public static MutableLoggingEvent acquire(String fqcn, Category logger, Priority level, Object message, Throwable t) {
+        MutableLoggingEvent event = (MutableLoggingEvent) CURRENT.get();
+        if (event.inUse) {
+            return null;
+        }
+        event.inUse = true;
+        event.sequence++;
+        event.reset(fqcn, logger, level, message, t == null ? null : new ThrowableInformation(t, logger),
+                System.currentTimeMillis());
+        return event;
+    }
+
+    /**
+     * 分发结束, 释放事件. 同时清除对消息、logger和异常的引用, 避免被线程长期持有
+     */
+    public void release() {
+        reset(null, null, null, null, null, 0L);
+        inUse = false;
+    }
+
+    private void reset(String fqcn, Category logger, Priority level, Object message, ThrowableInformation throwable,
+                       long timeStamp) {
+        this.fqcn = fqcn;
+        this.logger = logger;
+        this.loggerName = logger == null ? null : logger.getName();
+        this.level = level;
+        this.message = message;
+        this.eventTimeStamp = timeStamp;
+        this.renderedMessage = null;
+        this.threadName = null;
+        this.ndc = null;
+        this.ndcLookupRequired = true;
+        this.mdcCopy = null;
+        this.mdcCopyLookupRequired = true;
+        this.throwableInfo = throwable;
+        this.locationInfo = null;
+    }
+
+    public LocationInfo getLocationInformation() {
+        if (locationInfo == null) {
+            locationInfo = new LocationInfo(new Throwable(), fqcn);
+        }
+        return locationInfo;
+    }
+
+    public Level getLevel() {
+        return (Level) level;
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    public Category getLogger() {
+        return logger;
+    }
+
+    public Object getMessage() {
+        if (message != null) {
+            return message;
+        }
+        return getRenderedMessage();
+    }
+
+    public String getNDC() {
+        if (ndcLookupRequired) {
+            ndcLookupRequired = false;
+            ndc = NDC.get();
+        }
+        return ndc;
+    }
+
+    public Object getMDC(String key) {
+        if (mdcCopy != null) {
+            Object r = mdcCopy.get(key);
+            if (r != null) {
+                return r;
+            }
+        }
+        return MDC.get(key);
+    }
+
+    public void getMDCCopy() {
+        if (mdcCopyLookupRequired) {
+            mdcCopyLookupRequired = false;
+            Hashtable t = MDC.getContext();
+            if (t != null) {
+                mdcCopy = (Hashtable) t.clone();
+            }
+        }
+    }
+
+    public String getRenderedMessage() {
+        if (renderedMessage == null && message != null) {
+            if (message instanceof String) {
+                renderedMessage = (String) message;
+            } else {
+                LoggerRepository repository = logger.getLoggerRepository();
+                if (repository instanceof RendererSupport) {
+                    renderedMessage = ((RendererSupport) repository).getRendererMap().findAndRender(message);
+                } else {
+                    renderedMessage = message.toString();
+                }
+            }
+        }
+        return renderedMessage;
+    }
+
+    public String getThreadName() {
+        if (threadName == null) {
+            threadName = owner.getName();
+        }
+        return threadName;
+    }
+
+    public ThrowableInformation getThrowableInformation() {
+        return throwableInfo;
+    }
+
+    public String[] getThrowableStrRep() {
+        return throwableInfo == null ? null : throwableInfo.getThrowableStrRep();
+    }
+
+    public Map getProperties() {
+        getMDCCopy();
+        return Collections.unmodifiableMap(mdcCopy == null ? new HashMap() : mdcCopy);
+    }
+
+    public Object removeProperty(String propName) {
+        getMDCCopy();
+        if (mdcCopy == null) {
+            mdcCopy = new Hashtable();
+        }
+        return mdcCopy.remove(propName);
+    }
+
+    public String getFQNOfLoggerClass() {
+        return fqcn;
+    }
+
+    /**
+     * 复制为不可变的LoggingEvent. 线程名、NDC、MDC在这里固定, 必须在打印日志的线程中调用
+     */
+    public LoggingEvent toImmutable() {
+        return new LoggingEvent(fqcn, logger, eventTimeStamp, getLevel(), message,
+                getThreadName(), throwableInfo, getNDC(), locationInfo, getProperties());
+    }
+
+    /**
+     * event是复用的可变事件时返回其不可变的副本, 否则返回event本身
+     */
+    public static LoggingEvent snapshot(LoggingEvent event) {
+        return event instanceof MutableLoggingEvent ? ((MutableLoggingEvent) event).toImmutable() : event;
+    }
+
+    /**
+     * 事件的时间戳. 父类的timeStamp字段是final的, 复用的事件中始终为0, 读取时间戳都要通过这个方法
+     */
+    public static long timeStampOf(LoggingEvent event) {
+        return event instanceof MutableLoggingEvent ? ((MutableLoggingEvent) event).eventTimeStamp : event.timeStamp;
+    }
+
+    /**
+     * 事件的序号, 不是可变事件时为0. 同一对象序号不同时是不同的事件, 按事件身份缓存结果时需要一并比较
+     */
+    public static long sequenceOf(LoggingEvent event) {
+        return event instanceof MutableLoggingEvent ? ((MutableLoggingEvent) event).sequence : 0L;
+    }
+}
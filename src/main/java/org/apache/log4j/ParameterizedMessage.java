@@ -0,0 +1,357 @@
+package org.apache.log4j;
+
+import java.util.Arrays;
+
+/**
+ * @author clj
+ * 带参数的日志消息: 消息模板 + 原始参数, 模板中的"{}"依次替换为参数(与slf4j的写法相同, "\{}"输出"{}").
+ *
+ * <p>创建时不格式化, 只保存模板和参数, 直到layout输出时才拼接字符串; 没有appender输出时就不会格式化.
+ * 前两个参数保存在字段中, long/double/boolean参数保存原始值, 不装箱; 超过两个参数时使用Object数组.
+ * 模板和参数随LoggingEvent传递, 异步appender可以在消费线程中格式化, BinaryFileAppender直接写入模板和参数.
+ *
+ * <p>与slf4j相同, 最后一个参数是Throwable且没有对应的"{}"时, 作为日志的异常输出堆栈, 不作为参数.
+ */
+public final class ParameterizedMessage {
+
+    /**
+     * 参数类型
+     */
+    public static final byte OBJECT = 0;
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte BOOLEAN = 3;
+
+    private static final String PLACEHOLDER = "{}";
+    private static final char ESCAPE_CHAR = '\\';
+
+    private final String template;
+    private int count;
+
+    // 前两个参数. 原始类型的值保存在bits中(double为doubleToRawLongBits, boolean为0/1)
+    private byte type0;
+    private byte type1;
+    private long bits0;
+    private long bits1;
+    private Object arg0;
+    private Object arg1;
+
+    // 超过两个参数时使用, 此时前两个参数也在数组中
+    private Object[] args;
+
+    private Throwable throwable;
+
+    // 格式化结果, 第一次调用getFormattedMessage时生成
+    private volatile String formatted;
+
+    public ParameterizedMessage(String template, Object arg) {
+        this.template = template;
+        if (arg instanceof Throwable && countPlaceholders(template) < 1) {
+            this.throwable = (Throwable) arg;
+        } else {
+            this.count = 1;
+            this.arg0 = arg;
+        }
+    }
+
+    public ParameterizedMessage(String template, Object arg0, Object arg1) {
+        this.template = template;
+        this.arg0 = arg0;
+        if (arg1 instanceof Throwable && countPlaceholders(template) < 2) {
+            this.count = 1;
+            this.throwable = (Throwable) arg1;
+        } else {
+            this.count = 2;
+            this.arg1 = arg1;
+        }
+    }
+
+    public ParameterizedMessage(String template, Object[] args) {
+        this.template = template;
+        int n = args == null ? 0 : args.length;
+        if (n > 0 && args[n - 1] instanceof Throwable && countPlaceholders(template) < n) {
+            this.throwable = (Throwable) args[n - 1];
+            n--;
+        }
+        this.count = n;
+        if (n == 1) {
+            this.arg0 = args[0];
+        } else if (n == 2) {
+            this.arg0 = args[0];
+            this.arg1 = args[1];
+        } else if (n > 2) {
+            this.args = args;
+        }
+    }
+
+    public ParameterizedMessage(String template, long arg) {
+        this.template = template;
+        this.count = 1;
+        this.type0 = LONG;
+        this.bits0 = arg;
+    }
+
+    public ParameterizedMessage(String template, double arg) {
+        this.template = template;
+        this.count = 1;
+        this.type0 = DOUBLE;
+        this.bits0 = Double.doubleToRawLongBits(arg);
+    }
+
+    public ParameterizedMessage(String template, boolean arg) {
+        this.template = template;
+        this.count = 1;
+        this.type0 = BOOLEAN;
+        this.bits0 = arg ? 1 : 0;
+    }
+
+    public ParameterizedMessage(String template, Object arg0, long arg1) {
+        this.template = template;
+        this.count = 2;
+        this.arg0 = arg0;
+        this.type1 = LONG;
+        this.bits1 = arg1;
+    }
+
+    public ParameterizedMessage(String template, long arg0, long arg1) {
+        this.template = template;
+        this.count = 2;
+        this.type0 = LONG;
+        this.bits0 = arg0;
+        this.type1 = LONG;
+        this.bits1 = arg1;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public int getArgumentCount() {
+        return count;
+    }
+
+    /**
+     * 第index个参数的类型: OBJECT, LONG, DOUBLE或BOOLEAN
+     */
+    public byte getArgumentType(int index) {
+        checkIndex(index);
+        if (args != null) {
+            return OBJECT;
+        }
+        return index == 0 ? type0 : type1;
+    }
+
+    /**
+     * 第index个参数. 原始类型的参数会被装箱, 需要原始值时使用getLongArgument等方法
+     */
+    public Object getArgument(int index) {
+        switch (getArgumentType(index)) {
+            case LONG:
+                return Long.valueOf(bits(index));
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(bits(index)));
+            case BOOLEAN:
+                return Boolean.valueOf(bits(index) != 0);
+            default:
+                if (args != null) {
+                    return args[index];
+                }
+                return index == 0 ? arg0 : arg1;
+        }
+    }
+
+    public long getLongArgument(int index) {
+        checkType(index, LONG);
+        return bits(index);
+    }
+
+    public double getDoubleArgument(int index) {
+        checkType(index, DOUBLE);
+        return Double.longBitsToDouble(bits(index));
+    }
+
+    public boolean getBooleanArgument(int index) {
+        checkType(index, BOOLEAN);
+        return bits(index) != 0;
+    }
+
+    /**
+     * 从参数中分离出的异常, 没有时返回null
+     */
+    public Throwable getThrowable() {
+        return throwable;
+    }
+
+    /**
+     * 参数是否都是不可变的值(原始类型、String、基本类型的包装类、枚举或null).
+     * 为true时可以推迟到其他线程格式化, 结果与在调用线程中格式化相同
+     */
+    public boolean hasImmutableArguments() {
+        if (args == null) {
+            return (type0 != OBJECT || isImmutable(arg0)) && (count < 2 || type1 != OBJECT || isImmutable(arg1));
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!isImmutable(args[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isImmutable(Object o) {
+        return o == null || o instanceof String || o instanceof Long || o instanceof Integer
+                || o instanceof Double || o instanceof Boolean || o instanceof Character
+                || o instanceof Short || o instanceof Byte || o instanceof Float || o instanceof Enum;
+    }
+
+    /**
+     * 格式化后的消息, 只格式化一次
+     */
+    public String getFormattedMessage() {
+        String s = formatted;
+        if (s == null) {
+            StringBuilder sb = new StringBuilder((template == null ? 4 : template.length()) + 16 * count);
+            format(sb);
+            s = sb.toString();
+            formatted = s;
+        }
+        return s;
+    }
+
+    /**
+     * 把格式化后的消息追加到sb中. 已经格式化过时追加结果, 否则直接格式化到sb中, 不生成中间String
+     */
+    public void formatTo(StringBuilder sb) {
+        String s = formatted;
+        if (s != null) {
+            sb.append(s);
+        } else {
+            format(sb);
+        }
+    }
+
+    /**
+     * LoggingEvent.getRenderedMessage通过默认的ObjectRenderer调用
+     */
+    public String toString() {
+        return getFormattedMessage();
+    }
+
+    private void format(StringBuilder sb) {
+        String t = template;
+        if (t == null) {
+            sb.append("null");
+            return;
+        }
+        int len = t.length();
+        int start = 0;
+        int argIndex = 0;
+        for (int i = 0; i < len - 1; i++) {
+            char c = t.charAt(i);
+            if (c == ESCAPE_CHAR && t.startsWith(PLACEHOLDER, i + 1)) {
+                // "\{}"输出"{}"
+                sb.append(t, start, i);
+                sb.append(PLACEHOLDER);
+                i += 2;
+                start = i + 1;
+            } else if (c == '{' && t.charAt(i + 1) == '}') {
+                if (argIndex < count) {
+                    sb.append(t, start, i);
+                    appendArgument(sb, argIndex++);
+                    start = i + 2;
+                }
+                i++;
+            }
+        }
+        sb.append(t, start, len);
+    }
+
+    /**
+     * 把第index个参数的文本追加到sb中. 原始类型直接追加, 数组输出各元素,
+     * 参数的toString抛出异常时输出异常信息, 不影响日志输出
+     */
+    public void appendArgument(StringBuilder sb, int index) {
+        switch (getArgumentType(index)) {
+            case LONG:
+                sb.append(bits(index));
+                return;
+            case DOUBLE:
+                sb.append(Double.longBitsToDouble(bits(index)));
+                return;
+            case BOOLEAN:
+                sb.append(bits(index) != 0);
+                return;
+            default:
+                appendObject(sb, args != null ? args[index] : index == 0 ? arg0 : arg1);
+        }
+    }
+
+    private static void appendObject(StringBuilder sb, Object o) {
+        if (o == null || o instanceof String) {
+            sb.append((String) o);
+            return;
+        }
+        try {
+            if (!o.getClass().isArray()) {
+                sb.append(o.toString());
+            } else if (o instanceof Object[]) {
+                sb.append(Arrays.deepToString((Object[]) o));
+            } else if (o instanceof long[]) {
+                sb.append(Arrays.toString((long[]) o));
+            } else if (o instanceof int[]) {
+                sb.append(Arrays.toString((int[]) o));
+            } else if (o instanceof short[]) {
+                sb.append(Arrays.toString((short[]) o));
+            } else if (o instanceof byte[]) {
+                sb.append(Arrays.toString((byte[]) o));
+            } else if (o instanceof char[]) {
+                sb.append(Arrays.toString((char[]) o));
+            } else if (o instanceof double[]) {
+                sb.append(Arrays.toString((double[]) o));
+            } else if (o instanceof float[]) {
+                sb.append(Arrays.toString((float[]) o));
+            } else {
+                sb.append(Arrays.toString((boolean[]) o));
+            }
+        } catch (Throwable e) {
+            sb.append("[FAILED toString() of ").append(o.getClass().getName()).append(": ").append(e).append(']');
+        }
+    }
+
+    /**
+     * 模板中"{}"的个数(不含转义的"\{}")
+     */
+    static int countPlaceholders(String template) {
+        if (template == null) {
+            return 0;
+        }
+        int n = 0;
+        int len = template.length();
+        for (int i = 0; i < len - 1; i++) {
+            char c = template.charAt(i);
+            if (c == ESCAPE_CHAR && template.startsWith(PLACEHOLDER, i + 1)) {
+                i += 2;
+            } else if (c == '{' && template.charAt(i + 1) == '}') {
+                n++;
+                i++;
+            }
+        }
+        return n;
+    }
+
+    private long bits(int index) {
+        return index == 0 ? bits0 : bits1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Argument index " + index + ", count " + count);
+        }
+    }
+
+    private void checkType(int index, byte type) {
+        if (getArgumentType(index) != type) {
+            throw new IllegalArgumentException("Argument " + index + " is not of type " + type);
+        }
+    }
+}
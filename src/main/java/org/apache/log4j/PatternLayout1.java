@@ -17,12 +17,13 @@
 
 package org.apache.log4j;
 
+import org.apache.log4j.helpers.CompiledPatternFormatter;
 import org.apache.log4j.helpers.PatternConverter1;
 import org.apache.log4j.helpers.PatternParser1;
 import org.apache.log4j.spi.LoggingEvent;
 
 
-public class PatternLayout1 extends Layout {
+public class PatternLayout1 extends Layout implements GarbageFreeLayout {
 
 
     /**
@@ -45,12 +46,18 @@ public class PatternLayout1 extends Layout {
 
 
     // output buffer appended to when format() is invoked
-    private StringBuffer sbuf = new StringBuffer(BUF_SIZE);
+    private StringBuilder sbuf = new StringBuilder(BUF_SIZE);
 
     private String pattern;
 
     private PatternConverter1 head;
 
+    // 是否把转换器链组合成一个格式化器
+    private boolean compiled = false;
+
+    // 组合后的格式化器, 为null时遍历转换器链
+    private volatile CompiledPatternFormatter formatter;
+
     /**
      * Constructs a PatternLayout using the DEFAULT_LAYOUT_PATTERN.
      * <p>
@@ -77,6 +84,7 @@ public class PatternLayout1 extends Layout {
     public void setConversionPattern(String conversionPattern) {
         pattern = conversionPattern;
         head = createPatternParser(conversionPattern).parse();
+        compile();
     }
 
     /**
@@ -86,6 +94,24 @@ public class PatternLayout1 extends Layout {
         return pattern;
     }
 
+    /**
+     * 设置<b>Compiled</b>选项. 为true时, 配置时把解析出的转换器链组合成一个格式化器:
+     * 合并相邻的字面量, 没有宽度限制的转换器跳过截断和补空格的判断.
+     * 当前环境无法组合时仍然遍历转换器链. 默认为false
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+        compile();
+    }
+
+    public boolean getCompiled() {
+        return compiled;
+    }
+
+    private void compile() {
+        formatter = compiled ? CompiledPatternFormatter.compile(head) : null;
+    }
+
     /**
      * Does not do anything as options become effective
      */
@@ -122,18 +148,31 @@ public class PatternLayout1 extends Layout {
     public String format(LoggingEvent event) {
         // 重置buffer容量 (因为有些大日志输出时会将buffer的容量变得很大)
         if (sbuf.capacity() > MAX_CAPACITY) {
-            sbuf = new StringBuffer(BUF_SIZE);
+            sbuf = new StringBuilder(BUF_SIZE);
         } else {
             sbuf.setLength(0);
         }
 
+        format(sbuf, event);
+        // 返回最终的日志输出内容
+        return sbuf.toString();
+    }
+
+    /**
+     * 把日志内容直接格式化到调用方提供的sb中, 各模式转换器直接向sb追加内容, 不产生中间String.
+     * 该方法不使用layout内部的缓冲区, 可以被多个线程(各自使用自己的sb)同时调用.
+     */
+    public void format(StringBuilder sb, LoggingEvent event) {
+        CompiledPatternFormatter f = formatter;
+        if (f != null) {
+            f.format(sb, event);
+            return;
+        }
         // 遍历模式转化器链, 获取一个个模式转换器, 格式化拼接好日志内容
         PatternConverter1 c = head;
         while (c != null) {
-            c.format(sbuf, event);
+            c.format(sb, event);
             c = c.next;
         }
-        // 返回最终的日志输出内容
-        return sbuf.toString();
     }
 }
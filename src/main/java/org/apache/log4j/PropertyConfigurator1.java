@@ -22,7 +22,11 @@ public class PropertyConfigurator1 implements Configurator {
      */
     protected Hashtable registry = new Hashtable(11);
     private LoggerRepository repository;
-    protected LoggerFactory loggerFactory = new DefaultCategoryFactory();
+    /**
+     * 与Hierarchy1默认使用的工厂相同, 配置文件中的logger也创建为Logger1. 使用log4j自带的工厂会创建普通的Logger,
+     * Hierarchy1因此不能再缓存级别和分发表
+     */
+    protected LoggerFactory loggerFactory = new DefaultCategoryFactory1();
 
     static final String CATEGORY_PREFIX = "log4j.category.";
     static final String LOGGER_PREFIX = "log4j.logger.";
@@ -33,6 +37,8 @@ public class PropertyConfigurator1 implements Configurator {
     static final String APPENDER_PREFIX = "log4j.appender.";
     static final String RENDERER_PREFIX = "log4j.renderer.";
     static final String THRESHOLD_PREFIX = "log4j.threshold";
+    static final String ASYNC_SUFFIX = ".async";
+    static final String REUSABLE_EVENTS_KEY = "log4j.reusableEvents";
     private static final String THROWABLE_RENDERER_PREFIX = "log4j.throwableRenderer";
     private static final String LOGGER_REF = "logger-ref";
     private static final String ROOT_REF = "root-ref";
@@ -425,6 +431,12 @@ public class PropertyConfigurator1 implements Configurator {
             hierarchy.setThreshold(OptionConverter.toLevel(thresholdStr, (Level) Level.ALL));
         }
 
+        // 获取配置中的log4j.reusableEvents, 开启后同步输出时复用每个线程的可变事件
+        String reusableEvents = OptionConverter.findAndSubst(REUSABLE_EVENTS_KEY, properties);
+        if (reusableEvents != null && hierarchy instanceof Hierarchy1) {
+            ((Hierarchy1) hierarchy).setReusableEvents(OptionConverter.toBoolean(reusableEvents, false));
+        }
+
         // 核心代码: 配置根logger及其appender
         configureRootCategory(properties, hierarchy);
         // 配置LoggerFactory
@@ -751,17 +763,51 @@ public class PropertyConfigurator1 implements Configurator {
                 }
 
             }
+            // async开关不是appender自身的属性, 设置属性前先去掉, 避免PropertySetter告警
+            Properties appenderProps = props;
+            if (props.containsKey(prefix + ASYNC_SUFFIX)) {
+                appenderProps = new Properties();
+                appenderProps.putAll(props);
+                appenderProps.remove(prefix + ASYNC_SUFFIX);
+            }
             // 反射设置appender的其他属性(如encoding、threshold、maxFileSize、datePattern). PropertySetter.setProperties(...)该方法会经常使用到
-            PropertySetter.setProperties(appender, props, prefix + ".");
+            PropertySetter.setProperties(appender, appenderProps, prefix + ".");
             LogLog.debug("Parsed \"" + appenderName + "\" options.");
         }
         // 解析appender的Filter. 使用较少, 这里不展开讲
         parseAppenderFilters(props, appenderName, appender);
+        // 配置了log4j.appender.[appenderName].async=true时, 用异步appender包装
+        appender = parseAsyncAppender(props, prefix, appender);
         // 加入registry缓存中
         registryPut(appender);
         return appender;
     }
 
+    /**
+     * 若开启了异步输出, 返回包装了<code>appender</code>的{@link AsyncRingBufferAppender},
+     * 否则原样返回. 异步appender的参数使用log4j.appender.[appenderName].async.[属性名]配置.
+     */
+    Appender parseAsyncAppender(Properties props, String prefix, Appender appender) {
+        String value = OptionConverter.findAndSubst(prefix + ASYNC_SUFFIX, props);
+        if (!OptionConverter.toBoolean(value, false)) {
+            return appender;
+        }
+        AsyncRingBufferAppender async = new AsyncRingBufferAppender();
+        // 沿用原appender的名称, 这样logger按名称引用时拿到的就是异步appender
+        async.setName(appender.getName());
+        // 沿用原appender的threshold, 不会被写出的事件不必进入缓冲区
+        if (appender instanceof AppenderSkeleton) {
+            async.setThreshold(((AppenderSkeleton) appender).getThreshold());
+        } else if (appender instanceof AppenderSkeleton1) {
+            async.setThreshold(((AppenderSkeleton1) appender).getThreshold());
+        }
+        async.addAppender(appender);
+        LogLog.debug("Wrapping appender \"" + appender.getName() + "\" in an asynchronous appender.");
+        // 设置bufferSize、fullPolicy等属性, 并调用activateOptions启动消费线程
+        PropertySetter.setProperties(async, props, prefix + ASYNC_SUFFIX + ".");
+        return async;
+    }
+
     private void parseErrorHandler(
             final ErrorHandler eh,
             final String errorHandlerPrefix,
@@ -0,0 +1,66 @@
+package org.apache.log4j;
+
+import org.apache.log4j.helpers.LogLog;
+
+import java.text.MessageFormat;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * @author clj
+ * 延迟生成的日志消息, 由Logger1中接收Supplier/Function的方法创建.
+ *
+ * <p>创建时只保存supplier, 直到layout输出(LoggingEvent.getRenderedMessage)时才调用, 且最多调用一次:
+ * 级别未开启、所有appender都被threshold或filter拒绝时, supplier不会被调用.
+ * 调用后释放supplier及其引用的对象, 只保留生成的字符串.
+ */
+final class SuppliedMessage {
+
+    private Supplier supplier;
+    private Function function;
+    private Object argument;
+    // l7dlog的资源文件模式, 不为null时supplier提供的是MessageFormat的参数
+    private String pattern;
+
+    private String message;
+
+    SuppliedMessage(Supplier supplier) {
+        this.supplier = supplier;
+    }
+
+    SuppliedMessage(Function function, Object argument) {
+        this.function = function;
+        this.argument = argument;
+    }
+
+    SuppliedMessage(String pattern, Supplier params) {
+        this.pattern = pattern;
+        this.supplier = params;
+    }
+
+    /**
+     * LoggingEvent.getRenderedMessage通过默认的ObjectRenderer调用. 多个appender(可能在不同线程中)输出同一事件时,
+     * 加锁保证supplier只调用一次
+     */
+    public synchronized String toString() {
+        if (message == null) {
+            try {
+                if (pattern != null) {
+                    message = MessageFormat.format(pattern, supplier == null ? null : (Object[]) supplier.get());
+                } else if (function != null) {
+                    message = String.valueOf(function.apply(argument));
+                } else {
+                    message = String.valueOf(supplier.get());
+                }
+            } catch (RuntimeException e) {
+                // 延迟到appender中执行, 异常不能再抛给打印日志的代码, 输出异常信息代替消息
+                LogLog.warn("Failed to supply log message.", e);
+                message = "[FAILED to supply message: " + e + "]";
+            }
+            supplier = null;
+            function = null;
+            argument = null;
+        }
+        return message;
+    }
+}
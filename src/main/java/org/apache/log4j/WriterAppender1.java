@@ -17,12 +17,18 @@
 
 package org.apache.log4j;
 
+import org.apache.log4j.helpers.ByteBufferDestination;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.helpers.QuietWriter;
+import org.apache.log4j.helpers.StringBuilderEncoder;
+import org.apache.log4j.spi.ErrorCode;
 import org.apache.log4j.spi.ErrorHandler;
 import org.apache.log4j.spi.LoggingEvent;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 // Contibutors: Jens Uwe Pipka <jens.pipka@gmx.de>
 //              Ben Sandee
@@ -66,6 +72,49 @@ public class WriterAppender1 extends AppenderSkeleton1 {
      */
     protected QuietWriter qw;
 
+    private static final int BUF_SIZE = 256;
+    private static final int MAX_CAPACITY = 1024;
+
+    /**
+     * 复用的格式化缓冲区. subAppend在doAppend的锁内执行, 不需要额外同步
+     */
+    private StringBuilder formatBuffer = new StringBuilder(BUF_SIZE);
+    private char[] charBuffer = new char[BUF_SIZE];
+
+    /**
+     * 字节输出流. 通过{@link #setOutputStream}设置输出目标时使用, 此时qw为null:
+     * 格式化后的内容由encoder直接编码到byteBuffer, 再把byteBuffer的数组整块写入该流,
+     * 不再经过OutputStreamWriter(StreamEncoder)和QuietWriter两层缓冲和锁.
+     *
+     * <p>不使用FileChannel/Channels.newChannel: 它们是InterruptibleChannel, 打印日志的线程被中断时
+     * 通道会被关闭(ClosedByInterruptException), 之后所有日志都无法写入.
+     */
+    protected OutputStream out;
+
+    private static final int BYTE_BUFFER_SIZE = 8 * 1024;
+
+    private StringBuilderEncoder encoder;
+    private final ByteBuffer byteBuffer = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    private final StreamDestination destination = new StreamDestination();
+
+    /**
+     * 组提交模式. 开启后不再每条日志flush, 而是由后台线程每隔groupCommitInterval毫秒flush一次,
+     * 或者在未flush的内容达到groupCommitBytes时由写入线程立即flush.
+     * ERROR及以上级别的日志会等待包含它的那一批flush完成后才返回.
+     */
+    protected boolean groupCommit = false;
+    protected long groupCommitInterval = 2;
+    protected int groupCommitBytes = 8 * 1024;
+
+    /**
+     * 已写入的日志序号和已flush的日志序号, 均在appender锁内读写
+     */
+    private long appendSequence;
+    private long committedSequence;
+    // 未flush的内容长度, 与groupCommitBytes比较. 字节输出路径为编码后的字节数; Writer路径无法得知编码后的长度, 为字符数
+    private int pendingLength;
+    private Thread committer;
+
 
     /**
      * This default constructor does nothing.
@@ -74,12 +123,13 @@ public class WriterAppender1 extends AppenderSkeleton1 {
     }
 
     /**
-     * Instantiate a WriterAppender and set the output destination to a
-     * new {@link OutputStreamWriter} initialized with <code>os</code>
-     * as its {@link OutputStream}.
+     * Instantiate a WriterAppender and set the output destination to
+     * <code>os</code>. Formatted events are encoded to bytes by the
+     * appender itself, see {@link #setOutputStream}.
      */
     public WriterAppender1(Layout layout, OutputStream os) {
-        this(layout, new OutputStreamWriter(os));
+        this.layout = layout;
+        this.setOutputStream(os);
     }
 
     /**
@@ -119,6 +169,39 @@ public class WriterAppender1 extends AppenderSkeleton1 {
         return immediateFlush;
     }
 
+    /**
+     * 是否开启组提交模式, 默认false. 开启后<b>ImmediateFlush</b>选项不再生效.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    public boolean getGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * 组提交模式下两次flush的最大间隔(毫秒), 默认2
+     */
+    public void setGroupCommitInterval(long groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    public long getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    /**
+     * 组提交模式下未flush的内容(按字符数估算)达到该值时立即flush, 默认8192
+     */
+    public void setGroupCommitBytes(int groupCommitBytes) {
+        this.groupCommitBytes = groupCommitBytes;
+    }
+
+    public int getGroupCommitBytes() {
+        return groupCommitBytes;
+    }
+
     /**
      * Does nothing.
      */
@@ -159,7 +242,7 @@ public class WriterAppender1 extends AppenderSkeleton1 {
             return false;
         }
 
-        if (this.qw == null) {
+        if (this.qw == null && this.out == null) {
             errorHandler.error("No output stream or file set for the appender named [" +
                     name + "].");
             return false;
@@ -189,6 +272,8 @@ public class WriterAppender1 extends AppenderSkeleton1 {
         this.closed = true;
         writeFooter();
         reset();
+        // 唤醒等待组提交的线程
+        notifyAll();
     }
 
     /**
@@ -283,6 +368,22 @@ public class WriterAppender1 extends AppenderSkeleton1 {
     }
 
 
+    /**
+     * 设置字节输出目标.
+     * 编码使用<b>Encoding</b>选项指定的字符集(未指定时为系统默认字符集),
+     * 因此需要在设置Encoding之后调用.
+     *
+     * <p>流会在appender关闭时一并关闭.
+     */
+    public synchronized void setOutputStream(OutputStream os) {
+        reset();
+        this.out = os;
+        this.encoder = new StringBuilderEncoder(StringBuilderEncoder.toCharset(getEncoding()));
+        this.byteBuffer.clear();
+        writeHeader();
+    }
+
+
     /**
      * Actual writing occurs here.
      *
@@ -292,8 +393,27 @@ public class WriterAppender1 extends AppenderSkeleton1 {
      * @since 0.9.0
      */
     protected void subAppend(LoggingEvent event) {
+        if (this.out != null) {
+            subAppendBytes(event);
+            return;
+        }
         // 核心代码: 格式化输出内容, 将格式化后的内容写入QuietWriter (write时出现异常会使用异常处理器errorHandler)
-        this.qw.write(this.layout.format(event));
+        int length;
+        if (layout instanceof GarbageFreeLayout) {
+            // 直接格式化到复用的StringBuilder中, 不生成日志内容的String
+            StringBuilder sb = formatBuffer;
+            sb.setLength(0);
+            ((GarbageFreeLayout) layout).format(sb, event);
+            writeBuffer(sb);
+            length = sb.length();
+            if (sb.capacity() > MAX_CAPACITY) {
+                formatBuffer = new StringBuilder(BUF_SIZE);
+            }
+        } else {
+            String s = this.layout.format(event);
+            this.qw.write(s);
+            length = s.length();
+        }
 
         // 处理的异常对象不包含在layout处理范围内, 则使用渲染器ThrowableRenderer渲染要输出的异常信息
         if (layout.ignoresThrowable()) {
@@ -307,11 +427,151 @@ public class WriterAppender1 extends AppenderSkeleton1 {
             }
         }
         // immediateFlush=true, 则立即写出到文件 (bufferedIO=true时, immediateFlush会被置为false)
-        if (shouldFlush(event)) {
+        if (groupCommit) {
+            groupCommit(event, length);
+        } else if (shouldFlush(event)) {
+            this.qw.flush();
+        }
+    }
+
+
+    /**
+     * 字节输出路径: 格式化内容和异常信息全部写入复用的StringBuilder, 一次编码到byteBuffer.
+     * byteBuffer写满或需要flush时才写入输出流.
+     */
+    private void subAppendBytes(LoggingEvent event) {
+        StringBuilder sb = formatBuffer;
+        sb.setLength(0);
+        if (layout instanceof GarbageFreeLayout) {
+            ((GarbageFreeLayout) layout).format(sb, event);
+        } else {
+            sb.append(this.layout.format(event));
+        }
+        if (layout.ignoresThrowable()) {
+            String[] s = event.getThrowableStrRep();
+            if (s != null) {
+                int len = s.length;
+                for (int i = 0; i < len; i++) {
+                    sb.append(s[i]).append(Layout.LINE_SEP);
+                }
+            }
+        }
+        long written = destination.encodedBytes();
+        encoder.encode(sb, destination);
+        int length = (int) (destination.encodedBytes() - written);
+        if (sb.capacity() > MAX_CAPACITY) {
+            formatBuffer = new StringBuilder(BUF_SIZE);
+        }
+        if (groupCommit) {
+            groupCommit(event, length);
+        } else if (shouldFlush(event)) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * 组提交: 记录本条日志的序号, 未flush的内容足够多时立即flush,
+     * ERROR及以上级别则等待后台线程flush包含本条日志的那一批.
+     * 调用时持有appender锁, wait期间会释放锁, 其他线程可以继续写入同一批.
+     */
+    private void groupCommit(LoggingEvent event, int length) {
+        if (committer == null) {
+            startCommitter();
+        }
+        long sequence = ++appendSequence;
+        pendingLength += length;
+        if (pendingLength >= groupCommitBytes) {
+            commit();
+            return;
+        }
+        if (event.getLevel().isGreaterOrEqual(Level.ERROR)) {
+            long waitMillis = Math.max(1, groupCommitInterval);
+            while (committedSequence < sequence && !closed) {
+                try {
+                    wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    commit();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * flush已写入的内容并唤醒等待的线程. 调用时必须持有appender锁
+     */
+    private void commit() {
+        if (this.qw != null) {
             this.qw.flush();
+        } else {
+            flushBuffer();
+        }
+        committedSequence = appendSequence;
+        pendingLength = 0;
+        notifyAll();
+    }
+
+    private void startCommitter() {
+        committer = new Thread(new Committer(), "WriterAppender1-" + name + "-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * 把byteBuffer中尚未写出的字节写入输出流, 并flush输出流.
+     * 输出流本身可能带缓冲(如传入的BufferedOutputStream), 只写入不flush时内容仍停留在其缓冲中
+     */
+    protected void flushBuffer() {
+        if (this.out != null) {
+            destination.drain(byteBuffer);
+            try {
+                out.flush();
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                errorHandler.error("Failed to flush output stream for appender named [" + name + "].", e,
+                        ErrorCode.FLUSH_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * 写出剩余字节并关闭输出流
+     */
+    protected void closeOutputStream() {
+        if (out != null) {
+            flushBuffer();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                LogLog.error("Could not close " + out, e);
+            }
         }
     }
 
+    /**
+     * 把sb中的内容经复用的char数组写入QuietWriter
+     */
+    private void writeBuffer(StringBuilder sb) {
+        int len = sb.length();
+        if (charBuffer.length < len || charBuffer.length > MAX_CAPACITY) {
+            charBuffer = new char[Math.max(len, BUF_SIZE)];
+        }
+        sb.getChars(0, len, charBuffer, 0);
+        try {
+            this.qw.write(charBuffer, 0, len);
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException) {
+                Thread.currentThread().interrupt();
+            }
+            errorHandler.error("Failed to write [" + sb + "].", e, ErrorCode.WRITE_FAILURE);
+        }
+    }
 
     /**
      * The WriterAppender requires a layout. Hence, this method returns
@@ -321,6 +581,13 @@ public class WriterAppender1 extends AppenderSkeleton1 {
         return true;
     }
 
+    /**
+     * 同步写出, 不持有事件; 只读取事件的getter和MutableLoggingEvent.timeStampOf
+     */
+    protected boolean supportsReusableEvents() {
+        return true;
+    }
+
     /**
      * Clear internal references to the writer and other variables.
      * <p>
@@ -330,6 +597,9 @@ public class WriterAppender1 extends AppenderSkeleton1 {
     protected void reset() {
         closeWriter();
         this.qw = null;
+        closeOutputStream();
+        this.out = null;
+        this.encoder = null;
         //this.tp = null;
     }
 
@@ -344,6 +614,9 @@ public class WriterAppender1 extends AppenderSkeleton1 {
             if (f != null && this.qw != null) {
                 this.qw.write(f);
                 this.qw.flush();
+            } else if (f != null && this.out != null) {
+                encoder.encode(f, destination);
+                flushBuffer();
             }
         }
     }
@@ -355,8 +628,11 @@ public class WriterAppender1 extends AppenderSkeleton1 {
     protected void writeHeader() {
         if (layout != null) {
             String h = layout.getHeader();
-            if (h != null && this.qw != null)
+            if (h != null && this.qw != null) {
                 this.qw.write(h);
+            } else if (h != null && this.out != null) {
+                encoder.encode(h, destination);
+            }
         }
     }
 
@@ -369,4 +645,61 @@ public class WriterAppender1 extends AppenderSkeleton1 {
     protected boolean shouldFlush(final LoggingEvent event) {
         return immediateFlush;
     }
+
+    /**
+     * 组提交的后台线程: 每隔groupCommitInterval毫秒flush一次尚未flush的内容, appender关闭后退出
+     */
+    private class Committer implements Runnable {
+
+        public void run() {
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, groupCommitInterval));
+            for (; ; ) {
+                LockSupport.parkNanos(this, intervalNanos);
+                synchronized (WriterAppender1.this) {
+                    if (closed) {
+                        committer = null;
+                        return;
+                    }
+                    if (committedSequence < appendSequence) {
+                        commit();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 把byteBuffer中的字节写入输出流, 写入失败时交给errorHandler处理
+     */
+    private class StreamDestination implements ByteBufferDestination {
+
+        // 已从byteBuffer写入输出流的字节数
+        private long drainedBytes;
+
+        public ByteBuffer getByteBuffer() {
+            return byteBuffer;
+        }
+
+        /**
+         * 编码到byteBuffer的字节总数, 包括已写入输出流的和还在byteBuffer中的
+         */
+        long encodedBytes() {
+            return drainedBytes + byteBuffer.position();
+        }
+
+        public ByteBuffer drain(ByteBuffer buf) {
+            drainedBytes += buf.position();
+            try {
+                out.write(buf.array(), buf.arrayOffset(), buf.position());
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                errorHandler.error("Failed to write to output stream for appender named [" + name + "].", e,
+                        ErrorCode.WRITE_FAILURE);
+            }
+            buf.clear();
+            return buf;
+        }
+    }
 }
@@ -0,0 +1,318 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.MutableLoggingEvent;
+import org.apache.log4j.ParameterizedMessage;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 把日志事件编码为二进制记录(格式见{@link BinaryLogFormat}), 供BinaryFileAppender使用. 非线程安全.
+ *
+ * <p>EVENT记录的内容:
+ * <pre>
+ * 时间戳与上一条的差值(zigzag varint)
+ * 级别编码(1字节), 自定义级别时后面跟级别的int值(zigzag varint)
+ * logger名(字典引用) + 线程名(字典引用)
+ * flags(1字节, FLAG_*)
+ * [FLAG_LOCATION] 类名、方法名、文件名(字典引用) + 行号(varint, 0表示未知)
+ * MDC个数(varint) + 每项的key(字典引用)和值(字符串)
+ * 消息(字符串); [FLAG_PARAMETERS]时为模板(字典引用) + 参数个数(varint) + 每个参数的类型(1字节, ARG_*)和值
+ * [FLAG_NDC] NDC(字符串)
+ * [FLAG_THROWABLE] 堆栈行数(varint) + 每一行(字符串)
+ * </pre>
+ * 字典引用为varint id, 对应之前的DICT记录; id为0表示字典已满, 后面直接跟着字符串.
+ * 参数的值: ARG_LONG为zigzag varlong, ARG_DOUBLE为8字节, ARG_BOOLEAN为1字节, ARG_STRING为参数的文本(字符串), ARG_NULL没有值.
+ *
+ * <p>{@link ParameterizedMessage}不格式化, 直接写入模板和参数, 由BinaryLogDecoder读取时再格式化.
+ *
+ * @author clj
+ */
+public final class BinaryEventEncoder {
+
+    /**
+     * 每个会话中字典的最大条目数, 超过后新字符串直接写在记录中
+     */
+    private static final int MAX_DICTIONARY_SIZE = 65536;
+
+    private final boolean locationInfo;
+
+    /**
+     * 字符串 -> 字典id, id从1开始
+     */
+    private final Map dictionary = new HashMap();
+    private long lastTimestamp;
+
+    // 正在编码的EVENT记录内容
+    private ByteBuffer body = ByteBuffer.allocate(512);
+    // 编码过程中新增的DICT记录, 写在EVENT记录之前
+    private ByteBuffer dict = ByteBuffer.allocate(256);
+    // 对象参数的文本
+    private final StringBuilder argText = new StringBuilder(64);
+
+    public BinaryEventEncoder(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    /**
+     * 开始新的会话: 清空字典, 写入SESSION记录
+     */
+    public void startSession(long timestamp, ByteBufferDestination destination) {
+        dictionary.clear();
+        lastTimestamp = timestamp;
+        body.clear();
+        body.putLong(timestamp);
+        writeRecord(BinaryLogFormat.SESSION, destination);
+    }
+
+    public void encode(LoggingEvent event, ByteBufferDestination destination) {
+        body.clear();
+        dict.clear();
+
+        ensureBody(BinaryLogFormat.MAX_VARLONG_LENGTH + 1 + BinaryLogFormat.MAX_VARLONG_LENGTH);
+        long timeStamp = MutableLoggingEvent.timeStampOf(event);
+        BinaryLogFormat.putZigZag(body, timeStamp - lastTimestamp);
+        lastTimestamp = timeStamp;
+        Level level = event.getLevel();
+        int code = BinaryLogFormat.levelCode(level);
+        body.put((byte) code);
+        if (code == 0) {
+            BinaryLogFormat.putZigZag(body, level.toInt());
+        }
+        putReference(event.getLoggerName());
+        putReference(event.getThreadName());
+
+        String ndc = event.getNDC();
+        String[] throwable = event.getThrowableStrRep();
+        LocationInfo location = locationInfo ? LocationCapture.getLocationInformation(event) : null;
+        Object message = event.getMessage();
+        ParameterizedMessage parameterized = message instanceof ParameterizedMessage
+                ? (ParameterizedMessage) message : null;
+        int flags = 0;
+        if (location != null) {
+            flags |= BinaryLogFormat.FLAG_LOCATION;
+        }
+        if (ndc != null) {
+            flags |= BinaryLogFormat.FLAG_NDC;
+        }
+        if (throwable != null) {
+            flags |= BinaryLogFormat.FLAG_THROWABLE;
+        }
+        if (parameterized != null) {
+            flags |= BinaryLogFormat.FLAG_PARAMETERS;
+        }
+        ensureBody(1);
+        body.put((byte) flags);
+
+        if (location != null) {
+            putReference(location.getClassName());
+            putReference(location.getMethodName());
+            putReference(location.getFileName());
+            ensureBody(BinaryLogFormat.MAX_VARINT_LENGTH);
+            BinaryLogFormat.putVarint(body, parseLine(location.getLineNumber()));
+        }
+
+        Map mdc = EventMDC.getContext(event);
+        int mdcSize = mdc == null ? 0 : mdc.size();
+        ensureBody(BinaryLogFormat.MAX_VARINT_LENGTH);
+        if (mdcSize == 0) {
+            BinaryLogFormat.putVarint(body, 0);
+        } else {
+            // 在迭代前后MDC不会变化(只有所属线程会修改它, 或者是事件中的副本), 个数与迭代的项数一致
+            BinaryLogFormat.putVarint(body, mdcSize);
+            for (Iterator it = mdc.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) it.next();
+                putReference(String.valueOf(entry.getKey()));
+                Object value = entry.getValue();
+                putString(value instanceof CharSequence ? (CharSequence) value : String.valueOf(value));
+            }
+        }
+
+        if (parameterized != null) {
+            putParameters(parameterized);
+        } else {
+            String rendered = event.getRenderedMessage();
+            putString(rendered == null ? "" : rendered);
+        }
+        if (ndc != null) {
+            putString(ndc);
+        }
+        if (throwable != null) {
+            ensureBody(BinaryLogFormat.MAX_VARINT_LENGTH);
+            BinaryLogFormat.putVarint(body, throwable.length);
+            for (int i = 0; i < throwable.length; i++) {
+                putString(throwable[i]);
+            }
+        }
+
+        if (dict.position() > 0) {
+            dict.flip();
+            write(dict, destination);
+        }
+        writeRecord(BinaryLogFormat.EVENT, destination);
+    }
+
+    /**
+     * 写入模板和参数. 模板与logger名一样重复出现, 作为字典引用写入
+     */
+    private void putParameters(ParameterizedMessage message) {
+        String template = message.getTemplate();
+        putReference(template == null ? "" : template);
+        int count = message.getArgumentCount();
+        ensureBody(BinaryLogFormat.MAX_VARINT_LENGTH);
+        BinaryLogFormat.putVarint(body, count);
+        for (int i = 0; i < count; i++) {
+            ensureBody(1 + 8);
+            switch (message.getArgumentType(i)) {
+                case ParameterizedMessage.LONG:
+                    body.put(BinaryLogFormat.ARG_LONG);
+                    ensureBody(BinaryLogFormat.MAX_VARLONG_LENGTH);
+                    BinaryLogFormat.putZigZag(body, message.getLongArgument(i));
+                    break;
+                case ParameterizedMessage.DOUBLE:
+                    body.put(BinaryLogFormat.ARG_DOUBLE);
+                    body.putDouble(message.getDoubleArgument(i));
+                    break;
+                case ParameterizedMessage.BOOLEAN:
+                    body.put(BinaryLogFormat.ARG_BOOLEAN);
+                    body.put((byte) (message.getBooleanArgument(i) ? 1 : 0));
+                    break;
+                default:
+                    putObjectArgument(message, i);
+            }
+        }
+    }
+
+    /**
+     * 整数和Double按原始值写入, 其他对象写入参数的文本
+     */
+    private void putObjectArgument(ParameterizedMessage message, int index) {
+        Object arg = message.getArgument(index);
+        if (arg == null) {
+            body.put(BinaryLogFormat.ARG_NULL);
+        } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            body.put(BinaryLogFormat.ARG_LONG);
+            ensureBody(BinaryLogFormat.MAX_VARLONG_LENGTH);
+            BinaryLogFormat.putZigZag(body, ((Number) arg).longValue());
+        } else if (arg instanceof Double) {
+            body.put(BinaryLogFormat.ARG_DOUBLE);
+            body.putDouble(((Double) arg).doubleValue());
+        } else if (arg instanceof String) {
+            body.put(BinaryLogFormat.ARG_STRING);
+            putString((String) arg);
+        } else {
+            body.put(BinaryLogFormat.ARG_STRING);
+            argText.setLength(0);
+            message.appendArgument(argText, index);
+            putString(argText);
+        }
+    }
+
+    /**
+     * 行号字符串转换为数字, 无法转换时返回0. 不使用Integer.parseInt, 避免"?"时创建异常
+     */
+    private static int parseLine(String line) {
+        if (line == null) {
+            return 0;
+        }
+        int n = 0;
+        int len = line.length();
+        for (int i = 0; i < len; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9' || n > (Integer.MAX_VALUE - 9) / 10) {
+                return 0;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * 写入字典引用. 第一次出现的字符串先在dict中声明
+     */
+    private void putReference(String s) {
+        if (s == null) {
+            s = "";
+        }
+        Integer id = (Integer) dictionary.get(s);
+        if (id == null) {
+            if (dictionary.size() >= MAX_DICTIONARY_SIZE) {
+                ensureBody(1);
+                BinaryLogFormat.putVarint(body, 0);
+                putString(s);
+                return;
+            }
+            id = Integer.valueOf(dictionary.size() + 1);
+            dictionary.put(s, id);
+            declare(id.intValue(), s);
+        }
+        ensureBody(BinaryLogFormat.MAX_VARINT_LENGTH);
+        BinaryLogFormat.putVarint(body, id.intValue());
+    }
+
+    private void declare(int id, String s) {
+        int n = BinaryLogFormat.utf8Length(s);
+        int payload = BinaryLogFormat.varintLength(id) + BinaryLogFormat.varintLength(n) + n;
+        dict = ensure(dict, 1 + BinaryLogFormat.MAX_VARINT_LENGTH + payload);
+        dict.put(BinaryLogFormat.DICT);
+        BinaryLogFormat.putVarint(dict, payload);
+        BinaryLogFormat.putVarint(dict, id);
+        BinaryLogFormat.putString(dict, s, n);
+    }
+
+    private void putString(CharSequence s) {
+        int n = BinaryLogFormat.utf8Length(s);
+        ensureBody(BinaryLogFormat.MAX_VARINT_LENGTH + n);
+        BinaryLogFormat.putString(body, s, n);
+    }
+
+    private void ensureBody(int n) {
+        body = ensure(body, n);
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buf, int n) {
+        if (buf.remaining() >= n) {
+            return buf;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    /**
+     * 把body作为一条type类型的记录写出: 类型 + 长度 + 内容
+     */
+    private void writeRecord(byte type, ByteBufferDestination destination) {
+        body.flip();
+        ByteBuffer out = destination.getByteBuffer();
+        if (out.remaining() < 1 + BinaryLogFormat.MAX_VARINT_LENGTH) {
+            out = destination.drain(out);
+        }
+        out.put(type);
+        BinaryLogFormat.putVarint(out, body.remaining());
+        write(body, destination);
+    }
+
+    private static void write(ByteBuffer src, ByteBufferDestination destination) {
+        ByteBuffer out = destination.getByteBuffer();
+        while (src.hasRemaining()) {
+            if (!out.hasRemaining()) {
+                out = destination.drain(out);
+            }
+            if (src.remaining() <= out.remaining()) {
+                out.put(src);
+            } else {
+                int limit = src.limit();
+                src.limit(src.position() + out.remaining());
+                out.put(src);
+                src.limit(limit);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.Level;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制日志文件的格式定义, 以及写入、读取时共用的编码方法. 由BinaryFileAppender写入, BinaryLogDecoder读取.
+ *
+ * <p>文件以4字节魔数"L4JB"和1字节版本号开头, 之后是一条条记录, 每条记录为:
+ * <pre>
+ * 类型(1字节) + 内容长度(varint) + 内容
+ * </pre>
+ * 记录类型:
+ * <ul>
+ * <li>SESSION: 8字节基准时间戳. appender每次打开文件时写入, 之后的字典id重新从1开始;</li>
+ * <li>DICT: id(varint) + 字符串. 声明logger名、线程名、MDC key、类名等重复出现的字符串, 只在第一次用到时写一次;</li>
+ * <li>EVENT: 一条日志, 内容见{@link BinaryEventEncoder}.</li>
+ * </ul>
+ * 整数使用varint(每字节7位, 最高位表示后面还有字节), 有符号数先做zigzag转换;
+ * 字符串为UTF-8字节数(varint) + UTF-8字节.
+ *
+ * @author clj
+ */
+public final class BinaryLogFormat {
+
+    public static final byte[] MAGIC = {'L', '4', 'J', 'B'};
+    /**
+     * 版本2增加了FLAG_PARAMETERS(参数化消息)
+     */
+    public static final byte VERSION = 2;
+
+    public static final byte SESSION = 1;
+    public static final byte DICT = 2;
+    public static final byte EVENT = 3;
+
+    /**
+     * EVENT中flags字节的各个位
+     */
+    public static final int FLAG_LOCATION = 1;
+    public static final int FLAG_THROWABLE = 1 << 1;
+    public static final int FLAG_NDC = 1 << 2;
+    public static final int FLAG_PARAMETERS = 1 << 3;
+
+    /**
+     * 参数化消息中每个参数的类型
+     */
+    public static final byte ARG_NULL = 0;
+    public static final byte ARG_STRING = 1;
+    public static final byte ARG_LONG = 2;
+    public static final byte ARG_DOUBLE = 3;
+    public static final byte ARG_BOOLEAN = 4;
+
+    /**
+     * 标准级别对应的编码, 下标即编码; 编码0表示自定义级别, 后面跟着级别的int值
+     */
+    private static final Level[] LEVELS = {null, Level.ALL, Level.TRACE, Level.DEBUG, Level.INFO,
+            Level.WARN, Level.ERROR, Level.FATAL, Level.OFF};
+
+    /**
+     * 一个varint最多占用的字节数
+     */
+    public static final int MAX_VARINT_LENGTH = 5;
+    public static final int MAX_VARLONG_LENGTH = 10;
+
+    private BinaryLogFormat() {
+    }
+
+    public static int levelCode(Level level) {
+        for (int i = 1; i < LEVELS.length; i++) {
+            if (LEVELS[i] == level) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 编码对应的标准级别, 编码为0(自定义级别)或未知时返回null
+     */
+    public static Level toLevel(int code) {
+        return code > 0 && code < LEVELS.length ? LEVELS[code] : null;
+    }
+
+    /**
+     * value按varint编码后的字节数
+     */
+    public static int varintLength(int value) {
+        int n = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    public static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    public static void putVarlong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    public static void putZigZag(ByteBuffer buf, long value) {
+        putVarlong(buf, (value << 1) ^ (value >> 63));
+    }
+
+    public static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static long getVarlong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+
+    public static long getZigZag(ByteBuffer buf) {
+        long v = getVarlong(buf);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * s按UTF-8编码后的字节数. 不成对的代理字符按'?'计算
+     */
+    public static int utf8Length(CharSequence s) {
+        int len = s.length();
+        int n = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    n += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 代理对共4字节, 两个char已经计了2
+                    n += 2;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // '?', 已计1
+                } else {
+                    n += 2;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 写入UTF-8字节数和UTF-8字节. 调用方需保证buf中至少有MAX_VARINT_LENGTH + utf8Length(s)字节的空间
+     */
+    public static void putString(ByteBuffer buf, CharSequence s, int utf8Length) {
+        putVarint(buf, utf8Length);
+        int len = s.length();
+        if (utf8Length == len) {
+            // 全部是ASCII字符
+            for (int i = 0; i < len; i++) {
+                buf.put((byte) s.charAt(i));
+            }
+            return;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static String getString(ByteBuffer buf) {
+        int n = getVarint(buf);
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+            buf.position(buf.position() + n);
+        } else {
+            byte[] b = new byte[n];
+            buf.get(b);
+            s = new String(b, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,21 @@
+package org.apache.log4j.helpers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author clj
+ * 编码后的字节的写入目标. 编码器把字节写入getByteBuffer()返回的缓冲区,
+ * 缓冲区写满时调用drain()把已有内容写出, 并得到一个有剩余空间的缓冲区继续写入.
+ */
+public interface ByteBufferDestination {
+
+    /**
+     * 返回当前用于写入的缓冲区(处于写模式)
+     */
+    ByteBuffer getByteBuffer();
+
+    /**
+     * 把buf中已写入的内容写出, 返回可以继续写入的缓冲区(可以是同一个对象)
+     */
+    ByteBuffer drain(ByteBuffer buf);
+}
@@ -0,0 +1,147 @@
+package org.apache.log4j.helpers;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 带缓存的线程安全日期格式化器, 供%d使用.
+ *
+ * <p>同一秒内, 除毫秒外的格式化结果都相同, 因此按秒缓存格式化后的文本,
+ * 同一秒内的事件只需要替换3位毫秒数字. 缓存项不可变, 通过volatile字段发布;
+ * 缓存未命中时使用每个线程自己的DateFormat副本重新格式化, 不需要外部加锁.
+ *
+ * <p>若模式中没有毫秒字段, 整秒的文本直接复用; 若毫秒字段不是固定的3位数字(如S、SS),
+ * 则退化为按毫秒缓存.
+ *
+ * @author clj
+ */
+public final class CachedDateFormatter {
+
+    public static final String ISO8601_PATTERN = "yyyy-MM-dd HH:mm:ss,SSS";
+    public static final String ABSOLUTE_PATTERN = "HH:mm:ss,SSS";
+    public static final String DATE_AND_TIME_PATTERN = "dd MMM yyyy HH:mm:ss,SSS";
+
+    /**
+     * 模式中没有毫秒字段
+     */
+    static final int NO_MILLIS = -1;
+    /**
+     * 毫秒字段无法在原位替换, 只能按毫秒缓存
+     */
+    static final int UNCACHEABLE = -2;
+
+    private final String pattern;
+    private final ThreadLocal formats;
+    private final int millisOffset;
+
+    private volatile CachedText cache;
+
+    /**
+     * @param pattern SimpleDateFormat模式, 也可以是ISO8601、ABSOLUTE、DATE这几个简写
+     * @throws IllegalArgumentException 模式不合法时抛出
+     */
+    public CachedDateFormatter(String pattern) {
+        this.pattern = expandShortcut(pattern);
+        final SimpleDateFormat prototype = new SimpleDateFormat(this.pattern);
+        formats = new ThreadLocal() {
+            protected Object initialValue() {
+                return prototype.clone();
+            }
+        };
+        millisOffset = findMillisOffset(prototype);
+    }
+
+    /**
+     * 把log4j中的日期格式简写转换为SimpleDateFormat模式
+     */
+    public static String expandShortcut(String pattern) {
+        if (AbsoluteTimeDateFormat.ISO8601_DATE_FORMAT.equalsIgnoreCase(pattern)) {
+            return ISO8601_PATTERN;
+        } else if (AbsoluteTimeDateFormat.ABS_TIME_DATE_FORMAT.equalsIgnoreCase(pattern)) {
+            return ABSOLUTE_PATTERN;
+        } else if (AbsoluteTimeDateFormat.DATE_AND_TIME_DATE_FORMAT.equalsIgnoreCase(pattern)) {
+            return DATE_AND_TIME_PATTERN;
+        }
+        return pattern;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * 把timestamp格式化后追加到sb中
+     */
+    public void format(long timestamp, StringBuilder sb) {
+        long key = (millisOffset == UNCACHEABLE) ? timestamp : floorSecond(timestamp);
+        CachedText c = cache;
+        if (c == null || c.key != key) {
+            String text = ((DateFormat) formats.get()).format(new Date(timestamp));
+            c = new CachedText(key, text);
+            cache = c;
+        }
+
+        if (millisOffset < 0) {
+            sb.append(c.text);
+            return;
+        }
+
+        // 同一秒内只替换毫秒部分
+        int millis = (int) (timestamp - key);
+        sb.append(c.text, 0, millisOffset);
+        sb.append((char) ('0' + millis / 100));
+        sb.append((char) ('0' + (millis / 10) % 10));
+        sb.append((char) ('0' + millis % 10));
+        sb.append(c.text, millisOffset + 3, c.text.length());
+    }
+
+    public String format(long timestamp) {
+        StringBuilder sb = new StringBuilder(32);
+        format(timestamp, sb);
+        return sb.toString();
+    }
+
+    private static long floorSecond(long timestamp) {
+        long second = timestamp / 1000;
+        if (timestamp < 0 && second * 1000 != timestamp) {
+            second--;
+        }
+        return second * 1000;
+    }
+
+    /**
+     * 分别格式化整秒时刻和同一秒的第987毫秒, 找出两者唯一不同的3位数字所在的位置
+     */
+    static int findMillisOffset(DateFormat df) {
+        long base = floorSecond(System.currentTimeMillis());
+        String zero = df.format(new Date(base));
+        String probe = df.format(new Date(base + 987));
+        if (zero.equals(probe)) {
+            return NO_MILLIS;
+        }
+        if (zero.length() == probe.length()) {
+            for (int i = zero.indexOf("000"); i >= 0; i = zero.indexOf("000", i + 1)) {
+                if (probe.startsWith("987", i)
+                        && zero.regionMatches(0, probe, 0, i)
+                        && zero.regionMatches(i + 3, probe, i + 3, zero.length() - i - 3)) {
+                    return i;
+                }
+            }
+        }
+        return UNCACHEABLE;
+    }
+
+    /**
+     * 某一秒(或某一毫秒)的格式化结果, 创建后不再修改
+     */
+    private static final class CachedText {
+        final long key;
+        final String text;
+
+        CachedText(long key, String text) {
+            this.key = key;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.spi.LocationInfo;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * 编译期注入的日志调用位置.
+ *
+ * <p>CallSiteWeaver把业务代码中的logger.info(...)等调用改写为
+ * {@link LocatedLogCalls}中对应的静态方法, 并通过invokedynamic传入该调用处的位置.
+ * invokedynamic第一次执行时由{@link #bootstrap}创建LocationInfo并绑定为常量, 之后每次执行只是读取常量.
+ *
+ * <p>LocatedLogCalls在输出日志期间把位置记录到当前线程中,
+ * {@link LocationCapture}优先使用这里记录的位置, 不再遍历调用栈.
+ *
+ * @author clj
+ */
+public final class CallSiteLocation {
+
+    private static final ThreadLocal CURRENT = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Holder();
+        }
+    };
+
+    private CallSiteLocation() {
+    }
+
+    /**
+     * invokedynamic的引导方法, 返回始终得到同一个LocationInfo的调用点
+     *
+     * @param className  调用处的类名
+     * @param methodName 调用处的方法名
+     * @param fileName   源文件名, 没有调试信息时为空字符串
+     * @param line       行号, 没有调试信息时为-1
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type,
+                                     String className, String methodName, String fileName, int line) {
+        StackTraceElement element = new StackTraceElement(className, methodName,
+                fileName.length() == 0 ? null : fileName, line);
+        LocationInfo info = LocationCapture.toLocationInfo(element);
+        return new ConstantCallSite(MethodHandles.constant(LocationInfo.class, info).asType(type));
+    }
+
+    /**
+     * 当前线程正在输出的日志的编译期位置, 不在改写后的调用中时返回null
+     */
+    public static LocationInfo current() {
+        return ((Holder) CURRENT.get()).location;
+    }
+
+    static Holder holder() {
+        return (Holder) CURRENT.get();
+    }
+
+    /**
+     * 每个线程一个, 避免每次调用都执行ThreadLocal.set
+     */
+    static final class Holder {
+        LocationInfo location;
+    }
+}
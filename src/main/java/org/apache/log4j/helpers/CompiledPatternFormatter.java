@@ -0,0 +1,161 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 由PatternParser1解析出的模式转换器链组合成的格式化器, 供PatternLayout1使用.
+ *
+ * <p>配置时把整条链组合成一个MethodHandle, 格式化时只需一次调用:
+ * <ul>
+ * <li>相邻的字面量合并成一个字符串, 直接append到sb中;</li>
+ * <li>没有设置最小/最大宽度和对齐的转换器直接调用append, 跳过截断和补空格的判断;</li>
+ * <li>有宽度限制的转换器仍然调用format处理截断和对齐.</li>
+ * </ul>
+ * 字面量的总长度在配置时算好, 格式化前据此一次性扩容sb.
+ *
+ * <p>当前JVM不支持方法句柄(或组合失败)时, {@link #compile(PatternConverter1)}返回null,
+ * 调用方继续使用转换器链.
+ *
+ * @author clj
+ */
+public final class CompiledPatternFormatter {
+
+    /**
+     * 转换器输出长度的估计值, 仅用于预先扩容
+     */
+    private static final int ESTIMATED_CONVERTER_LENGTH = 16;
+
+    private static final MethodHandle APPEND_LITERAL;
+    private static final MethodHandle CONVERTER_APPEND;
+    private static final MethodHandle CONVERTER_FORMAT;
+    private static final MethodHandle NOOP;
+
+    static {
+        MethodHandle appendLiteral = null;
+        MethodHandle converterAppend = null;
+        MethodHandle converterFormat = null;
+        MethodHandle noop = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType formatType = MethodType.methodType(void.class, StringBuilder.class, LoggingEvent.class);
+            appendLiteral = lookup.findVirtual(StringBuilder.class, "append",
+                    MethodType.methodType(StringBuilder.class, String.class));
+            // append是protected方法, 与本类同包, 可以直接查找
+            converterAppend = lookup.findVirtual(PatternConverter1.class, "append", formatType);
+            converterFormat = lookup.findVirtual(PatternConverter1.class, "format", formatType);
+            noop = lookup.findStatic(CompiledPatternFormatter.class, "noop", formatType);
+        } catch (Throwable e) {
+            LogLog.debug("MethodHandles unavailable, pattern formatters will not be compiled.", e);
+        }
+        APPEND_LITERAL = appendLiteral;
+        CONVERTER_APPEND = converterAppend;
+        CONVERTER_FORMAT = converterFormat;
+        NOOP = noop;
+    }
+
+    private final MethodHandle formatter;
+    private final int literalLength;
+    private final int estimatedLength;
+
+    private CompiledPatternFormatter(MethodHandle formatter, int literalLength, int converterCount) {
+        this.formatter = formatter;
+        this.literalLength = literalLength;
+        this.estimatedLength = literalLength + converterCount * ESTIMATED_CONVERTER_LENGTH;
+    }
+
+    /**
+     * 把转换器链组合成一个格式化器. 不支持时返回null
+     */
+    public static CompiledPatternFormatter compile(PatternConverter1 head) {
+        if (NOOP == null) {
+            return null;
+        }
+        try {
+            // 先按顺序收集各步骤, 再从后往前组合
+            List steps = new ArrayList();
+            StringBuilder literal = new StringBuilder();
+            int literalLength = 0;
+            int converterCount = 0;
+            for (PatternConverter1 c = head; c != null; c = c.next) {
+                if (c instanceof PatternParser1.LiteralPatternConverter) {
+                    literal.append(((PatternParser1.LiteralPatternConverter) c).getLiteral());
+                    continue;
+                }
+                if (literal.length() > 0) {
+                    steps.add(literalStep(literal.toString()));
+                    literalLength += literal.length();
+                    literal.setLength(0);
+                }
+                steps.add(converterStep(c));
+                converterCount++;
+            }
+            if (literal.length() > 0) {
+                steps.add(literalStep(literal.toString()));
+                literalLength += literal.length();
+            }
+
+            MethodHandle formatter = NOOP;
+            for (int i = steps.size() - 1; i >= 0; i--) {
+                // 先执行当前步骤, 再以相同参数执行后面的步骤
+                formatter = MethodHandles.foldArguments(formatter, (MethodHandle) steps.get(i));
+            }
+            return new CompiledPatternFormatter(formatter, literalLength, converterCount);
+        } catch (Throwable e) {
+            LogLog.warn("Could not compile conversion pattern, using converter chain.", e);
+            return null;
+        }
+    }
+
+    private static MethodHandle literalStep(String literal) {
+        MethodHandle append = MethodHandles.insertArguments(APPEND_LITERAL, 1, literal)
+                .asType(MethodType.methodType(void.class, StringBuilder.class));
+        return MethodHandles.dropArguments(append, 1, LoggingEvent.class);
+    }
+
+    private static MethodHandle converterStep(PatternConverter1 c) throws NoSuchMethodException {
+        if (c.min < 0 && c.max == Integer.MAX_VALUE && !overridesFormat(c)) {
+            return CONVERTER_APPEND.bindTo(c);
+        }
+        return CONVERTER_FORMAT.bindTo(c);
+    }
+
+    /**
+     * 子类覆盖了format时, 不能跳过format直接调用append
+     */
+    private static boolean overridesFormat(PatternConverter1 c) throws NoSuchMethodException {
+        return c.getClass().getMethod("format", StringBuilder.class, LoggingEvent.class)
+                .getDeclaringClass() != PatternConverter1.class;
+    }
+
+    private static void noop(StringBuilder sb, LoggingEvent event) {
+    }
+
+    /**
+     * 把日志内容格式化到sb中, 输出与依次调用转换器链的format相同
+     */
+    public void format(StringBuilder sb, LoggingEvent event) {
+        sb.ensureCapacity(sb.length() + estimatedLength);
+        try {
+            formatter.invokeExact(sb, event);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 模式中字面量的总长度
+     */
+    public int getLiteralLength() {
+        return literalLength;
+    }
+}
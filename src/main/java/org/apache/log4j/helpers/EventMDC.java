@@ -0,0 +1,56 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Map;
+
+/**
+ * 读取事件MDC的工具类, 用来替代LoggingEvent.getProperties().
+ *
+ * <p>LoggingEvent.getProperties()第一次调用时会克隆当前线程的整个MDC(Hashtable), 并且每次都包装一个新的Map.
+ * 在打印日志的线程中同步分发时, 当前线程的MDC就是事件的MDC, 这里直接返回它, 不产生任何对象;
+ * 其他情况(如异步appender的消费线程)中仍然返回事件中保存的MDC副本.
+ *
+ * <p>是否在打印日志的线程中由Logger1.forcedLog标记: 分发前{@link #beginDispatch}记录当前线程正在分发的事件,
+ * 分发结束后{@link #endDispatch}恢复. 不能用线程名判断, 不同线程的线程名可能是同一个String对象,
+ * 并且事件的线程名是在第一次读取时才从当前线程取得的.
+ *
+ * @author clj
+ */
+public final class EventMDC {
+
+    // 当前线程正在同步分发的事件, 没有时为null
+    private static final ThreadLocal DISPATCHING = new ThreadLocal();
+
+    private EventMDC() {
+    }
+
+    /**
+     * 返回事件的MDC, 只读. 可能为null
+     */
+    public static Map getContext(LoggingEvent event) {
+        // 事件正由当前线程同步分发, 说明就是在当前线程中产生的
+        if (event == DISPATCHING.get()) {
+            return MDC.getContext();
+        }
+        return event.getProperties();
+    }
+
+    /**
+     * 标记当前线程开始同步分发event, 返回之前正在分发的事件(分发过程中再次打印日志时不为null),
+     * 分发结束后必须传给{@link #endDispatch}
+     */
+    public static Object beginDispatch(LoggingEvent event) {
+        Object previous = DISPATCHING.get();
+        DISPATCHING.set(event);
+        return previous;
+    }
+
+    /**
+     * 分发结束, 恢复beginDispatch返回的事件
+     */
+    public static void endDispatch(Object previous) {
+        DISPATCHING.set(previous);
+    }
+}
@@ -0,0 +1,86 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LocationInfo;
+
+/**
+ * CallSiteWeaver改写后的日志调用的目标方法.
+ *
+ * <p>每个方法先判断级别, 未开启时直接返回; 开启时把编译期的调用位置记录到当前线程,
+ * 再以本类作为callerFQCN调用Category.log. 这样即使layout不使用LocationCapture
+ * (如log4j自带的PatternLayout), 按调用栈查找到的调用者仍然是业务代码.
+ *
+ * @author clj
+ */
+public final class LocatedLogCalls {
+
+    private static final String FQCN = LocatedLogCalls.class.getName();
+
+    private LocatedLogCalls() {
+    }
+
+    public static void trace(Logger logger, Object message, LocationInfo location) {
+        log(logger, Level.TRACE, message, null, location);
+    }
+
+    public static void trace(Logger logger, Object message, Throwable t, LocationInfo location) {
+        log(logger, Level.TRACE, message, t, location);
+    }
+
+    public static void debug(Category logger, Object message, LocationInfo location) {
+        log(logger, Level.DEBUG, message, null, location);
+    }
+
+    public static void debug(Category logger, Object message, Throwable t, LocationInfo location) {
+        log(logger, Level.DEBUG, message, t, location);
+    }
+
+    public static void info(Category logger, Object message, LocationInfo location) {
+        log(logger, Level.INFO, message, null, location);
+    }
+
+    public static void info(Category logger, Object message, Throwable t, LocationInfo location) {
+        log(logger, Level.INFO, message, t, location);
+    }
+
+    public static void warn(Category logger, Object message, LocationInfo location) {
+        log(logger, Level.WARN, message, null, location);
+    }
+
+    public static void warn(Category logger, Object message, Throwable t, LocationInfo location) {
+        log(logger, Level.WARN, message, t, location);
+    }
+
+    public static void error(Category logger, Object message, LocationInfo location) {
+        log(logger, Level.ERROR, message, null, location);
+    }
+
+    public static void error(Category logger, Object message, Throwable t, LocationInfo location) {
+        log(logger, Level.ERROR, message, t, location);
+    }
+
+    public static void fatal(Category logger, Object message, LocationInfo location) {
+        log(logger, Level.FATAL, message, null, location);
+    }
+
+    public static void fatal(Category logger, Object message, Throwable t, LocationInfo location) {
+        log(logger, Level.FATAL, message, t, location);
+    }
+
+    private static void log(Category logger, Level level, Object message, Throwable t, LocationInfo location) {
+        if (!logger.isEnabledFor(level)) {
+            return;
+        }
+        CallSiteLocation.Holder holder = CallSiteLocation.holder();
+        // 嵌套的日志调用(如message.toString()中打印日志)结束后恢复外层的位置
+        LocationInfo previous = holder.location;
+        holder.location = location;
+        try {
+            logger.log(FQCN, level, message, t);
+        } finally {
+            holder.location = previous;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.apache.log4j.helpers;
+
+import org.apache.log4j.MutableLoggingEvent;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 获取日志调用位置(%l %F %L %M %C)的工具类, 用来替代LoggingEvent.getLocationInformation().
+ *
+ * <p>LoggingEvent.getLocationInformation()每次都要创建Throwable并取得完整的调用栈.
+ * 这里在Java 9及以上使用StackWalker从栈顶开始逐帧查找, 找到调用者后立即停止;
+ * Java 8没有StackWalker, 退化为Throwable.getStackTrace(), 但仍然只查找到调用者为止.
+ *
+ * <p>相同调用位置(类、方法、文件、行号都相同)的LocationInfo会被缓存复用;
+ * 同一个线程连续为同一事件获取位置时(如pattern中同时有%F和%L)直接返回上次的结果.
+ *
+ * <p>经CallSiteWeaver改写过的调用处, 位置在编译期已经确定, 直接使用{@link CallSiteLocation}中记录的位置.
+ *
+ * <p>只有在打印日志的线程中(调用栈中有事件的fqnOfCategoryClass)才能找到调用位置,
+ * 否则(如异步appender的消费线程)退回LoggingEvent.getLocationInformation(),
+ * 此时返回的是事件中已经保存的位置信息.
+ *
+ * @author clj
+ */
+public final class LocationCapture {
+
+    /**
+     * 缓存的调用位置数量上限, 超过后不再缓存新的调用位置
+     */
+    private static final int MAX_CACHED_LOCATIONS = 4096;
+
+    private static final String LOCATED_CALLS_FQCN = LocatedLogCalls.class.getName();
+
+    private static final ConcurrentHashMap LOCATIONS = new ConcurrentHashMap();
+
+    /**
+     * fqn -> 查找调用者的函数, 供StackWalker.walk使用
+     */
+    private static final ConcurrentHashMap FINDERS = new ConcurrentHashMap();
+
+    private static final ThreadLocal LAST_LOCATION = new ThreadLocal() {
+        protected Object initialValue() {
+            return new LastLocation();
+        }
+    };
+
+    /**
+     * StackWalker相关的方法句柄. 编译目标为Java 8, 只能通过反射获取, Java 8下均为null
+     */
+    private static final Object WALKER;
+    private static final MethodHandle WALK;
+    private static final MethodHandle GET_CLASS_NAME;
+    private static final MethodHandle TO_STACK_TRACE_ELEMENT;
+
+    static {
+        Object walker = null;
+        MethodHandle walk = null;
+        MethodHandle getClassName = null;
+        MethodHandle toStackTraceElement = null;
+        try {
+            Class walkerClass = Class.forName("java.lang.StackWalker");
+            Class frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            // walk是caller-sensitive方法, 不能使用publicLookup
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = lookup.findVirtual(walkerClass, "walk", MethodType.methodType(Object.class, Function.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Function.class));
+            getClassName = lookup.findVirtual(frameClass, "getClassName", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            toStackTraceElement = lookup.findVirtual(frameClass, "toStackTraceElement",
+                    MethodType.methodType(StackTraceElement.class))
+                    .asType(MethodType.methodType(StackTraceElement.class, Object.class));
+        } catch (Throwable e) {
+            // Java 8, 使用Throwable.getStackTrace()
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walker != null ? walk : null;
+        GET_CLASS_NAME = walker != null ? getClassName : null;
+        TO_STACK_TRACE_ELEMENT = walker != null ? toStackTraceElement : null;
+    }
+
+    private LocationCapture() {
+    }
+
+    /**
+     * 返回事件的调用位置, 结果与LoggingEvent.getLocationInformation()相同
+     */
+    public static LocationInfo getLocationInformation(LoggingEvent event) {
+        // fqn为LocatedLogCalls说明事件来自改写后的调用, 当前线程中记录的就是它的位置
+        if (LOCATED_CALLS_FQCN.equals(event.getFQNOfLoggerClass())) {
+            LocationInfo location = CallSiteLocation.current();
+            if (location != null) {
+                return location;
+            }
+        }
+        LastLocation last = (LastLocation) LAST_LOCATION.get();
+        long sequence = MutableLoggingEvent.sequenceOf(event);
+        if (last.matches(event, sequence)) {
+            return last.info;
+        }
+        LocationInfo info = null;
+        StackTraceElement caller = findCaller(event.getFQNOfLoggerClass());
+        if (caller != null) {
+            info = toLocationInfo(caller);
+        }
+        if (info == null) {
+            info = event.getLocationInformation();
+        }
+        last.update(event, sequence, info);
+        return info;
+    }
+
+    /**
+     * 从栈顶开始查找, 跳过fqn类之前的帧, 返回fqn类之后的第一帧(即调用者). 找不到时返回null
+     */
+    static StackTraceElement findCaller(String fqn) {
+        if (fqn == null) {
+            return null;
+        }
+        if (WALKER != null) {
+            Function finder = (Function) FINDERS.get(fqn);
+            if (finder == null) {
+                finder = new CallerFinder(fqn);
+                FINDERS.put(fqn, finder);
+            }
+            try {
+                // invokeExact要求调用处的类型与方法句柄完全一致, 先以Object接收
+                Object caller = WALK.invokeExact(WALKER, finder);
+                return (StackTraceElement) caller;
+            } catch (Throwable e) {
+                LogLog.debug("StackWalker failed, falling back to getStackTrace.", e);
+            }
+        }
+        StackTraceElement[] elements = new Throwable().getStackTrace();
+        boolean found = false;
+        for (int i = 0; i < elements.length; i++) {
+            if (fqn.equals(elements[i].getClassName())) {
+                found = true;
+            } else if (found) {
+                return elements[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 相同调用位置复用同一个LocationInfo
+     */
+    static LocationInfo toLocationInfo(StackTraceElement caller) {
+        LocationInfo info = (LocationInfo) LOCATIONS.get(caller);
+        if (info == null) {
+            String fileName = caller.getFileName();
+            int line = caller.getLineNumber();
+            info = new LocationInfo(fileName == null ? LocationInfo.NA : fileName,
+                    caller.getClassName(), caller.getMethodName(),
+                    line < 0 ? LocationInfo.NA : String.valueOf(line));
+            if (LOCATIONS.size() < MAX_CACHED_LOCATIONS) {
+                LOCATIONS.put(caller, info);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * StackWalker.walk的回调: 懒加载地逐帧查找调用者, 找到后不再继续遍历
+     */
+    private static final class CallerFinder implements Function {
+        private final String fqn;
+
+        CallerFinder(String fqn) {
+            this.fqn = fqn;
+        }
+
+        public Object apply(Object frames) {
+            Iterator it = ((Stream) frames).iterator();
+            boolean found = false;
+            try {
+                while (it.hasNext()) {
+                    Object frame = it.next();
+                    String className = (String) GET_CLASS_NAME.invokeExact(frame);
+                    if (fqn.equals(className)) {
+                        found = true;
+                    } else if (found) {
+                        return (StackTraceElement) TO_STACK_TRACE_ELEMENT.invokeExact(frame);
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 当前线程上一次获取位置的事件和结果. 只保存比较用的键, 不持有事件本身,
+     * 以免空闲的线程一直引用最后一条日志的消息、异常等对象
+     */
+    private static final class LastLocation {
+        // 复用的可变事件的序号. 可变事件每个线程一个, 且只在该线程中分发, 序号相同即是同一条日志
+        long sequence;
+        // 其他事件按身份比较, 使用弱引用
+        WeakReference event;
+        LocationInfo info;
+
+        boolean matches(LoggingEvent e, long sequence) {
+            if (sequence != 0) {
+                return this.sequence == sequence;
+            }
+            return event != null && event.get() == e;
+        }
+
+        void update(LoggingEvent e, long sequence, LocationInfo info) {
+            this.sequence = sequence;
+            this.event = sequence != 0 ? null : new WeakReference(e);
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.apache.log4j.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * %c{n}、%C{n}使用的全限定名缩写器, 缩写结果按名称缓存.
+ *
+ * <p>支持两种选项:
+ * <ul>
+ * <li>正整数n: 只保留最右边的n段, 如%c{2}: com.chenlongji.log4jstudy.test.LogTest -> test.LogTest;</li>
+ * <li>缩写模式(含'.'): 每段保留的字符数(或*表示整段), 后面可以跟一个表示省略的字符.
+ *     最后一段总是完整保留, 模式中的最后一项用于其余所有段, 如:
+ *     %c{1.} -> c.c.l.t.LogTest, %c{1.1.*} -> c.c.log4jstudy.test.LogTest, %c{3~.} -> com.che~.log~.tes~.LogTest</li>
+ * </ul>
+ *
+ * <p>类名、logger名的种类有限而重复出现, 每个名称只缩写一次, 之后直接返回缓存的结果.
+ * 缓存数量有上限, 超过后新名称每次重新计算.
+ *
+ * @author clj
+ */
+public final class NameAbbreviator {
+
+    /**
+     * 每个缩写器缓存的名称数量上限
+     */
+    private static final int MAX_CACHED_NAMES = 1024;
+
+    private static final NameAbbreviator NONE = new NameAbbreviator(0, null);
+
+    /**
+     * 保留最右边的段数, 为0时使用fragments
+     */
+    private final int precision;
+    private final Fragment[] fragments;
+
+    private final ConcurrentHashMap cache = new ConcurrentHashMap();
+
+    private NameAbbreviator(int precision, Fragment[] fragments) {
+        this.precision = precision;
+        this.fragments = fragments;
+    }
+
+    /**
+     * 根据%c、%C花括号中的选项创建缩写器, 选项为null或不合法时不缩写
+     */
+    public static NameAbbreviator getAbbreviator(String option) {
+        if (option == null) {
+            return NONE;
+        }
+        String opt = option.trim();
+        if (opt.indexOf('.') >= 0) {
+            Fragment[] fragments = parseFragments(opt);
+            if (fragments == null) {
+                LogLog.error("Abbreviation pattern \"" + opt + "\" is not valid.");
+                return NONE;
+            }
+            return new NameAbbreviator(0, fragments);
+        }
+        try {
+            int precision = Integer.parseInt(opt);
+            if (precision <= 0) {
+                LogLog.error("Precision option (" + opt + ") isn't a positive integer.");
+                return NONE;
+            }
+            return new NameAbbreviator(precision, null);
+        } catch (NumberFormatException e) {
+            LogLog.error("Category option \"" + opt + "\" not a decimal integer.", e);
+            return NONE;
+        }
+    }
+
+    /**
+     * 解析缩写模式, 每项为 数字或* 加可选的一个省略字符, 项之间以'.'分隔
+     */
+    private static Fragment[] parseFragments(String pattern) {
+        List list = new ArrayList();
+        int i = 0;
+        int len = pattern.length();
+        while (i < len) {
+            int charCount;
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                charCount = Integer.MAX_VALUE;
+                i++;
+            } else if (c >= '0' && c <= '9') {
+                int start = i;
+                while (i < len && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '9') {
+                    i++;
+                }
+                try {
+                    charCount = Integer.parseInt(pattern.substring(start, i));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+            char ellipsis = '\0';
+            if (i < len && pattern.charAt(i) != '.') {
+                ellipsis = pattern.charAt(i++);
+            }
+            if (i < len && pattern.charAt(i) != '.') {
+                return null;
+            }
+            i++;
+            list.add(new Fragment(charCount, ellipsis));
+        }
+        return list.isEmpty() ? null : (Fragment[]) list.toArray(new Fragment[list.size()]);
+    }
+
+    /**
+     * 是否会改变名称. 为false时abbreviate总是返回原名称
+     */
+    public boolean isAbbreviating() {
+        return this != NONE;
+    }
+
+    /**
+     * 返回缩写后的名称, 同一名称只计算一次
+     */
+    public String abbreviate(String name) {
+        if (this == NONE || name == null) {
+            return name;
+        }
+        String abbreviated = (String) cache.get(name);
+        if (abbreviated == null) {
+            abbreviated = precision > 0 ? keepRight(name) : applyFragments(name);
+            if (cache.size() < MAX_CACHED_NAMES) {
+                cache.put(name, abbreviated);
+            }
+        }
+        return abbreviated;
+    }
+
+    private String keepRight(String name) {
+        int len = name.length();
+        int end = len - 1;
+        for (int i = precision; i > 0; i--) {
+            end = name.lastIndexOf('.', end - 1);
+            if (end == -1) {
+                return name;
+            }
+        }
+        return name.substring(end + 1, len);
+    }
+
+    private String applyFragments(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        int start = 0;
+        int index = 0;
+        int dot;
+        // 最后一段(类名)不缩写
+        while ((dot = name.indexOf('.', start)) >= 0) {
+            Fragment f = fragments[Math.min(index, fragments.length - 1)];
+            int segmentLength = dot - start;
+            if (segmentLength > f.charCount) {
+                sb.append(name, start, start + f.charCount);
+                if (f.ellipsis != '\0') {
+                    sb.append(f.ellipsis);
+                }
+            } else {
+                sb.append(name, start, dot);
+            }
+            sb.append('.');
+            start = dot + 1;
+            index++;
+        }
+        sb.append(name, start, name.length());
+        return sb.toString();
+    }
+
+    /**
+     * 缩写模式中的一项: 保留的字符数和截断时追加的省略字符
+     */
+    private static final class Fragment {
+        final int charCount;
+        final char ellipsis;
+
+        Fragment(int charCount, char ellipsis) {
+            this.charCount = charCount;
+            this.ellipsis = ellipsis;
+        }
+    }
+}
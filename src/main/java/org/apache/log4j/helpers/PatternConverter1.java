@@ -41,6 +41,39 @@ public abstract class PatternConverter1 {
 
     abstract protected String convert(LoggingEvent event);
 
+    /**
+     * 把转换结果直接追加到sb中. 默认实现退化为调用convert,
+     * 子类应覆盖该方法, 直接追加内容而不生成中间String.
+     */
+    protected void append(StringBuilder sb, LoggingEvent event) {
+        String s = convert(event);
+        if (s != null) {
+            sb.append(s);
+        }
+    }
+
+    /**
+     * 无垃圾的格式化入口: 先把内容直接追加到调用方提供的sb中, 再在原位置上处理截断和对齐,
+     * 整个过程不产生中间String.
+     */
+    public void format(StringBuilder sb, LoggingEvent e) {
+        int start = sb.length();
+        append(sb, e);
+        int len = sb.length() - start;
+
+        // 实际内容大于 阈值, 保留指定阈值长度右侧内容
+        if (len > max) {
+            sb.delete(start, start + len - max);
+        } else if (len < min) {
+            // 左对齐, 在内容后拼接多余空格; 右对齐, 在内容前插入多余空格
+            if (leftAlign) {
+                spacePad(sb, min - len);
+            } else {
+                spaceInsert(sb, start, min - len);
+            }
+        }
+    }
+
     public void format(StringBuffer sbuf, LoggingEvent e) {
         // 执行子类的convert方法
         String s = convert(e);
@@ -79,6 +112,38 @@ public abstract class PatternConverter1 {
             "                ", // 16 spaces
             "                                "}; // 32 spaces
 
+    /**
+     * 有几个空格就拼接几个空格
+     */
+    public void spacePad(StringBuilder sb, int length) {
+        while (length >= 32) {
+            sb.append(SPACES[5]);
+            length -= 32;
+        }
+
+        for (int i = 4; i >= 0; i--) {
+            if ((length & (1 << i)) != 0) {
+                sb.append(SPACES[i]);
+            }
+        }
+    }
+
+    /**
+     * 在sb的offset位置插入length个空格
+     */
+    public void spaceInsert(StringBuilder sb, int offset, int length) {
+        while (length >= 32) {
+            sb.insert(offset, SPACES[5]);
+            length -= 32;
+        }
+
+        for (int i = 4; i >= 0; i--) {
+            if ((length & (1 << i)) != 0) {
+                sb.insert(offset, SPACES[i]);
+            }
+        }
+    }
+
     /**
      * 有几个空格就拼接几个空格
      */
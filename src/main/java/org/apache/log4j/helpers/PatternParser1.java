@@ -17,13 +17,12 @@
 package org.apache.log4j.helpers;
 
 import org.apache.log4j.Layout;
+import org.apache.log4j.MutableLoggingEvent;
+import org.apache.log4j.ParameterizedMessage;
 import org.apache.log4j.spi.LocationInfo;
 import org.apache.log4j.spi.LoggingEvent;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Map;
 
 public class PatternParser1 {
@@ -213,36 +212,30 @@ public class PatternParser1 {
         PatternConverter1 pc = null;
         switch (c) {
             case 'c':
-                // 获取LoggerName, 示例%c、%c{2} 花括号的内容表示取全限定名从右到左第几个.开始后段部分的值
-                pc = new CategoryPatternConverter(formattingInfo, extractPrecisionOption());
+                // 获取LoggerName, 示例%c、%c{2} 花括号的内容表示取全限定名从右到左第几个.开始后段部分的值,
+                // %c{1.} 表示除最后一段外每段只保留首字母, 见NameAbbreviator
+                pc = new CategoryPatternConverter(formattingInfo, NameAbbreviator.getAbbreviator(extractOption()));
                 currentLiteral.setLength(0);
                 break;
             case 'C':
-                // 输出日志消息产生时所在类的全限定类名, 示例%C、%C{2} 花括号的内容表示取全限定名从右到左第几个.开始后段部分的值
-                pc = new ClassNamePatternConverter(formattingInfo, extractPrecisionOption());
+                // 输出日志消息产生时所在类的全限定类名, 示例%C、%C{2} 花括号的内容表示取全限定名从右到左第几个.开始后段部分的值,
+                // 同样支持%C{1.}这样的缩写模式
+                pc = new ClassNamePatternConverter(formattingInfo, NameAbbreviator.getAbbreviator(extractOption()));
                 currentLiteral.setLength(0);
                 break;
             case 'd':
                 String dateFormatStr = AbsoluteTimeDateFormat.ISO8601_DATE_FORMAT;
-                DateFormat df;
+                CachedDateFormatter df;
                 String dOpt = extractOption();
                 if (dOpt != null) {
                     dateFormatStr = dOpt;
                 }
-                if (dateFormatStr.equalsIgnoreCase(AbsoluteTimeDateFormat.ISO8601_DATE_FORMAT)) {
-                    df = new ISO8601DateFormat();
-                } else if (dateFormatStr.equalsIgnoreCase(AbsoluteTimeDateFormat.ABS_TIME_DATE_FORMAT)) {
-                    df = new AbsoluteTimeDateFormat();
-                } else if (dateFormatStr.equalsIgnoreCase(AbsoluteTimeDateFormat.DATE_AND_TIME_DATE_FORMAT)) {
-                    df = new DateTimeDateFormat();
-                } else {
-                    try {
-                        df = new SimpleDateFormat(dateFormatStr);
-                    } catch (IllegalArgumentException e) {
-                        LogLog.error("Could not instantiate SimpleDateFormat with " + dateFormatStr, e);
-                        df = (DateFormat) OptionConverter.instantiateByClassName(
-                                "org.apache.log4j.helpers.ISO8601DateFormat", DateFormat.class, null);
-                    }
+                // ISO8601、ABSOLUTE、DATE简写会被展开为对应的SimpleDateFormat模式
+                try {
+                    df = new CachedDateFormatter(dateFormatStr);
+                } catch (IllegalArgumentException e) {
+                    LogLog.error("Could not instantiate SimpleDateFormat with " + dateFormatStr, e);
+                    df = new CachedDateFormatter(CachedDateFormatter.ISO8601_PATTERN);
                 }
                 pc = new DatePatternConverter(formattingInfo, df);
                 currentLiteral.setLength(0);
@@ -324,7 +317,7 @@ public class PatternParser1 {
         public String convert(LoggingEvent event) {
             switch (type) {
                 case RELATIVE_TIME_CONVERTER:
-                    return (Long.toString(event.timeStamp - LoggingEvent.getStartTime()));
+                    return (Long.toString(MutableLoggingEvent.timeStampOf(event) - LoggingEvent.getStartTime()));
                 case THREAD_CONVERTER:
                     return event.getThreadName();
                 case LEVEL_CONVERTER:
@@ -338,52 +331,111 @@ public class PatternParser1 {
                     return null;
             }
         }
+
+        @Override
+        protected void append(StringBuilder sb, LoggingEvent event) {
+            switch (type) {
+                case RELATIVE_TIME_CONVERTER:
+                    sb.append(MutableLoggingEvent.timeStampOf(event) - LoggingEvent.getStartTime());
+                    break;
+                case THREAD_CONVERTER:
+                    sb.append(event.getThreadName());
+                    break;
+                case LEVEL_CONVERTER:
+                    // Level.toString()返回的是缓存的级别字符串, 不会产生新对象
+                    sb.append(event.getLevel().toString());
+                    break;
+                case NDC_CONVERTER:
+                    appendNullable(sb, event.getNDC());
+                    break;
+                case MESSAGE_CONVERTER:
+                    Object message = event.getMessage();
+                    if (message instanceof ParameterizedMessage) {
+                        // 参数化的消息直接格式化到sb中, 不生成中间String
+                        ((ParameterizedMessage) message).formatTo(sb);
+                    } else {
+                        appendNullable(sb, event.getRenderedMessage());
+                    }
+                    break;
+                default:
+            }
+        }
+    }
+
+    /**
+     * StringBuilder.append(null)会输出"null", 这里为null时不输出, 与convert返回null的行为一致
+     */
+    private static void appendNullable(StringBuilder sb, String s) {
+        if (s != null) {
+            sb.append(s);
+        }
     }
 
-    private static class LiteralPatternConverter extends PatternConverter1 {
+    static class LiteralPatternConverter extends PatternConverter1 {
         private String literal;
 
         LiteralPatternConverter(String value) {
             literal = value;
         }
 
+        String getLiteral() {
+            return literal;
+        }
+
         @Override
         public final void format(StringBuffer sbuf, LoggingEvent event) {
             sbuf.append(literal);
         }
 
+        @Override
+        public final void format(StringBuilder sb, LoggingEvent event) {
+            sb.append(literal);
+        }
+
         @Override
         public String convert(LoggingEvent event) {
             return literal;
         }
     }
 
+    /**
+     * 使用按秒缓存的CachedDateFormatter, 不共享可变的Date和DateFormat, 可被多个线程同时调用
+     */
     private static class DatePatternConverter extends PatternConverter1 {
-        private DateFormat df;
-        private Date date;
+        private CachedDateFormatter df;
 
-        DatePatternConverter(FormattingInfo1 formattingInfo, DateFormat df) {
+        DatePatternConverter(FormattingInfo1 formattingInfo, CachedDateFormatter df) {
             super(formattingInfo);
-            date = new Date();
             this.df = df;
         }
 
         @Override
         public String convert(LoggingEvent event) {
-            date.setTime(event.timeStamp);
-            String converted = null;
-            try {
-                converted = df.format(date);
-            } catch (Exception ex) {
-                LogLog.error("Error occured while converting date.", ex);
-            }
-            return converted;
+            return df.format(MutableLoggingEvent.timeStampOf(event));
+        }
+
+        @Override
+        protected void append(StringBuilder sb, LoggingEvent event) {
+            df.format(MutableLoggingEvent.timeStampOf(event), sb);
         }
     }
 
+    /**
+     * %X{key}: 值为CharSequence时直接追加, 不调用toString.
+     * %X: 按key排序输出整个MDC. 每个线程缓存上次的排序后的key、对应的值和输出文本,
+     * 值(按引用比较)都没有变化时直接追加上次的文本; 只有值变化时沿用已排好序的key, 只重新拼接文本.
+     * 在打印日志的线程中直接读取该线程的MDC, 不调用event.getProperties()(会克隆整个MDC).
+     */
     private static class MDCPatternConverter extends PatternConverter1 {
         private String key;
 
+        // 当前线程上次输出整个MDC的结果, 只在%X时使用
+        private final ThreadLocal rendered = new ThreadLocal() {
+            protected Object initialValue() {
+                return new RenderedMDC();
+            }
+        };
+
         MDCPatternConverter(FormattingInfo1 formattingInfo, String key) {
             super(formattingInfo);
             this.key = key;
@@ -392,21 +444,9 @@ public class PatternParser1 {
         @Override
         public String convert(LoggingEvent event) {
             if (key == null) {
-                StringBuffer buf = new StringBuffer("{");
-                Map properties = event.getProperties();
-                if (properties.size() > 0) {
-                    Object[] keys = properties.keySet().toArray();
-                    Arrays.sort(keys);
-                    for (int i = 0; i < keys.length; i++) {
-                        buf.append('{');
-                        buf.append(keys[i]);
-                        buf.append(',');
-                        buf.append(properties.get(keys[i]));
-                        buf.append('}');
-                    }
-                }
-                buf.append('}');
-                return buf.toString();
+                StringBuilder sb = new StringBuilder();
+                append(sb, event);
+                return sb.toString();
             } else {
                 Object val = event.getMDC(key);
                 if (val == null) {
@@ -416,6 +456,109 @@ public class PatternParser1 {
                 }
             }
         }
+
+        @Override
+        protected void append(StringBuilder sb, LoggingEvent event) {
+            if (key == null) {
+                appendAll(sb, event);
+            } else {
+                Object val = event.getMDC(key);
+                if (val != null) {
+                    appendValue(sb, val);
+                }
+            }
+        }
+
+        private void appendAll(StringBuilder sb, LoggingEvent event) {
+            // 在打印日志的线程中直接读取该线程的MDC, 不克隆
+            Map properties = EventMDC.getContext(event);
+            if (properties == null || properties.isEmpty()) {
+                sb.append("{}");
+                return;
+            }
+
+            RenderedMDC r = (RenderedMDC) rendered.get();
+            if (r.matches(properties)) {
+                sb.append(r.text);
+                return;
+            }
+
+            int start = sb.length();
+            if (!r.sameKeys(properties)) {
+                Object[] keys = properties.keySet().toArray();
+                Arrays.sort(keys);
+                r.keys = keys;
+                r.values = new Object[keys.length];
+            }
+            boolean cacheable = true;
+            sb.append('{');
+            for (int i = 0; i < r.keys.length; i++) {
+                Object val = properties.get(r.keys[i]);
+                r.values[i] = val;
+                // 可变的CharSequence(如StringBuilder)内容可能变化, 不能按引用判断是否变化
+                if (val != null && !(val instanceof String)) {
+                    cacheable = false;
+                }
+                sb.append('{');
+                sb.append(r.keys[i]);
+                sb.append(',');
+                appendValue(sb, val);
+                sb.append('}');
+            }
+            sb.append('}');
+            r.text = cacheable ? sb.substring(start) : null;
+        }
+
+        /**
+         * CharSequence类型的值直接追加, 不调用toString
+         */
+        private static void appendValue(StringBuilder sb, Object val) {
+            if (val instanceof CharSequence) {
+                sb.append((CharSequence) val);
+            } else {
+                sb.append(val);
+            }
+        }
+    }
+
+    /**
+     * 某个线程上次输出的整个MDC: 排好序的key、对应的值和输出的文本
+     */
+    private static final class RenderedMDC {
+        Object[] keys = new Object[0];
+        Object[] values = new Object[0];
+        // 值中有可变对象时为null, 不能复用
+        String text;
+
+        /**
+         * key集合相同
+         */
+        boolean sameKeys(Map properties) {
+            if (properties.size() != keys.length) {
+                return false;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (!properties.containsKey(keys[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * key集合相同, 且每个值都是上次的同一个对象
+         */
+        boolean matches(Map properties) {
+            if (text == null || properties.size() != keys.length) {
+                return false;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (properties.get(keys[i]) != values[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
 
@@ -429,7 +572,7 @@ public class PatternParser1 {
 
         @Override
         public String convert(LoggingEvent event) {
-            LocationInfo locationInfo = event.getLocationInformation();
+            LocationInfo locationInfo = LocationCapture.getLocationInformation(event);
             switch (type) {
                 case FULL_LOCATION_CONVERTER:
                     return locationInfo.fullInfo;
@@ -443,53 +586,51 @@ public class PatternParser1 {
                     return null;
             }
         }
+
+        @Override
+        protected void append(StringBuilder sb, LoggingEvent event) {
+            appendNullable(sb, convert(event));
+        }
     }
 
     private static abstract class NamedPatternConverter extends PatternConverter1 {
-        int precision;
+        // 名称缩写器, 缩写结果按名称缓存, 同一个名称只计算一次
+        NameAbbreviator abbreviator;
 
-        NamedPatternConverter(FormattingInfo1 formattingInfo, int precision) {
+        NamedPatternConverter(FormattingInfo1 formattingInfo, NameAbbreviator abbreviator) {
             super(formattingInfo);
-            this.precision = precision;
+            this.abbreviator = abbreviator;
         }
 
         abstract String getFullyQualifiedName(LoggingEvent event);
 
         @Override
         public String convert(LoggingEvent event) {
-            String n = getFullyQualifiedName(event);
-            if (precision <= 0) {
-                return n;
-            } else {
-                int len = n.length();
-                int end = len - 1;
-                for (int i = precision; i > 0; i--) {
-                    end = n.lastIndexOf('.', end - 1);
-                    if (end == -1) {
-                        return n;
-                    }
-                }
-                return n.substring(end + 1, len);
-            }
+            return abbreviator.abbreviate(getFullyQualifiedName(event));
+        }
+
+        @Override
+        protected void append(StringBuilder sb, LoggingEvent event) {
+            appendNullable(sb, abbreviator.abbreviate(getFullyQualifiedName(event)));
         }
     }
 
     private class ClassNamePatternConverter extends NamedPatternConverter {
 
-        ClassNamePatternConverter(FormattingInfo1 formattingInfo, int precision) {
-            super(formattingInfo, precision);
+        ClassNamePatternConverter(FormattingInfo1 formattingInfo, NameAbbreviator abbreviator) {
+            super(formattingInfo, abbreviator);
         }
 
         @Override
         String getFullyQualifiedName(LoggingEvent event) {
-            return event.getLocationInformation().getClassName();
+            return LocationCapture.getLocationInformation(event).getClassName();
         }
     }
 
     private class CategoryPatternConverter extends NamedPatternConverter {
 
-        CategoryPatternConverter(FormattingInfo1 formattingInfo, int precision) {
-            super(formattingInfo, precision);
+        CategoryPatternConverter(FormattingInfo1 formattingInfo, NameAbbreviator abbreviator) {
+            super(formattingInfo, abbreviator);
         }
 
         @Override
@@ -0,0 +1,110 @@
+package org.apache.log4j.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界、预分配、无锁的环形缓冲区(多生产者/多消费者).
+ *
+ * <p>每个槽位带一个序号: 序号等于写入位置时槽位可写, 等于写入位置+1时槽位可读.
+ * 生产者和消费者都只通过CAS推进各自的游标, 不使用任何锁.
+ * 容量会向上取整为2的幂, 以便用位运算计算槽位下标.
+ *
+ * @author clj
+ */
+public final class RingBuffer {
+
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    /**
+     * 下一个可读位置
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * 下一个可写位置
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    public RingBuffer(int capacity) {
+        if (capacity < 2) {
+            capacity = 2;
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        if (size <= 0) {
+            size = 1 << 30;
+        }
+        slots = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * 写入一个元素. 缓冲区已满时立即返回<code>false</code>.
+     */
+    public boolean offer(Object element) {
+        long pos = tail.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = element;
+                    // 发布槽位, 消费者读取到新序号后即可看到element
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 取出最早写入的元素. 缓冲区为空时返回<code>null</code>.
+     */
+    public Object poll() {
+        long pos = head.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Object element = slots[index];
+                    slots[index] = null;
+                    // 槽位交还给下一轮的生产者
+                    sequences.lazySet(index, pos + mask + 1);
+                    return element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * 当前元素个数的近似值
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
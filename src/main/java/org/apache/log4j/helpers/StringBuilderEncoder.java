@@ -0,0 +1,142 @@
+package org.apache.log4j.helpers;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 把StringBuilder中的字符编码为字节并写入{@link ByteBufferDestination}.
+ *
+ * <p>CharsetEncoder和中转用的CharBuffer都会被复用, 编码过程不产生对象.
+ * 对于UTF-8、US-ASCII、ISO-8859-1这类兼容ASCII的字符集, 纯ASCII字符直接按字节写入,
+ * 遇到非ASCII字符时才交给CharsetEncoder处理剩余部分.
+ *
+ * <p>该类不是线程安全的, 调用方(通常是持有appender锁的subAppend)负责同步.
+ *
+ * @author clj
+ */
+public final class StringBuilderEncoder {
+
+    private static final int DEFAULT_CHAR_BUFFER_SIZE = 2048;
+
+    private final Charset charset;
+    private final CharsetEncoder encoder;
+    private final CharBuffer charBuffer;
+    private final boolean asciiCompatible;
+
+    public StringBuilderEncoder(Charset charset) {
+        this(charset, DEFAULT_CHAR_BUFFER_SIZE);
+    }
+
+    public StringBuilderEncoder(Charset charset, int charBufferSize) {
+        this.charset = charset;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.charBuffer = CharBuffer.wrap(new char[charBufferSize]);
+        String name = charset.name();
+        this.asciiCompatible = "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+    }
+
+    /**
+     * 根据编码名称返回字符集, 名称为空或不支持时返回系统默认字符集
+     */
+    public static Charset toCharset(String encoding) {
+        if (encoding != null) {
+            try {
+                return Charset.forName(encoding);
+            } catch (IllegalArgumentException e) {
+                LogLog.warn("Error initializing output encoding.");
+                LogLog.warn("Unsupported encoding [" + encoding + "]?");
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void encode(CharSequence text, ByteBufferDestination destination) {
+        if (text instanceof StringBuilder) {
+            encode((StringBuilder) text, destination);
+        } else {
+            encodeChars(new StringBuilder(text), 0, destination);
+        }
+    }
+
+    /**
+     * 把sb的全部内容编码后写入destination
+     */
+    public void encode(StringBuilder sb, ByteBufferDestination destination) {
+        int start = 0;
+        if (asciiCompatible) {
+            start = encodeAscii(sb, destination);
+            if (start == sb.length()) {
+                return;
+            }
+        }
+        encodeChars(sb, start, destination);
+    }
+
+    /**
+     * 快速路径: 逐个写入ASCII字符, 返回第一个非ASCII字符的位置(全部为ASCII时返回长度)
+     */
+    private int encodeAscii(StringBuilder sb, ByteBufferDestination destination) {
+        ByteBuffer bb = destination.getByteBuffer();
+        int len = sb.length();
+        for (int i = 0; i < len; i++) {
+            char c = sb.charAt(i);
+            if (c >= 0x80) {
+                return i;
+            }
+            if (!bb.hasRemaining()) {
+                bb = destination.drain(bb);
+            }
+            bb.put((byte) c);
+        }
+        return len;
+    }
+
+    /**
+     * 通用路径: 分段复制到复用的CharBuffer中, 交给CharsetEncoder编码
+     */
+    private void encodeChars(StringBuilder sb, int start, ByteBufferDestination destination) {
+        ByteBuffer bb = destination.getByteBuffer();
+        CharBuffer cb = charBuffer;
+        cb.clear();
+        encoder.reset();
+        int len = sb.length();
+        int i = start;
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            int n = Math.min(cb.remaining(), len - i);
+            sb.getChars(i, i + n, cb.array(), cb.arrayOffset() + cb.position());
+            cb.position(cb.position() + n);
+            i += n;
+            endOfInput = i >= len;
+            cb.flip();
+            for (; ; ) {
+                CoderResult result = encoder.encode(cb, bb, endOfInput);
+                if (result.isOverflow()) {
+                    bb = destination.drain(bb);
+                } else {
+                    break;
+                }
+            }
+            // 未编码完的字符(如被分段截断的代理对)留到下一轮
+            cb.compact();
+        }
+        for (; ; ) {
+            CoderResult result = encoder.flush(bb);
+            if (result.isOverflow()) {
+                bb = destination.drain(bb);
+            } else {
+                break;
+            }
+        }
+    }
+}
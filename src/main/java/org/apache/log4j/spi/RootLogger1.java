@@ -0,0 +1,50 @@
+package org.apache.log4j.spi;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger1;
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * @author clj
+ * Hierarchy1使用的根logger. 与log4j自带的RootLogger相同, 但继承Logger1,
+ * 使根logger的appender也以快照的方式发布, 整个继承体系的分发都不需要加锁.
+ *
+ * <p>RootLogger sits at the top of the logger hierachy. It is a
+ * regular logger except that it provides several guarantees.
+ *
+ * <p>First, it cannot be assigned a <code>null</code>
+ * level. Second, since root logger cannot have a parent, the
+ * {@link #getChainedLevel} method always returns the value of the
+ * level field without walking the hierarchy.
+ */
+public final class RootLogger1 extends Logger1 {
+
+    /**
+     * The root logger names itself as "root". However, the root
+     * logger cannot be retrieved by name.
+     */
+    public RootLogger1(Level level) {
+        super("root");
+        setLevel(level);
+    }
+
+    /**
+     * Return the assigned level value without walking the logger
+     * hierarchy.
+     */
+    public final Level getChainedLevel() {
+        return level;
+    }
+
+    /**
+     * Setting a null value to the level of the root logger may have catastrophic
+     * results. We prevent this here.
+     */
+    public final void setLevel(Level level) {
+        if (level == null) {
+            LogLog.error("You have tried to set a null level to root.", new Throwable());
+        } else {
+            super.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.chenlongji.log4jstudy.test;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Hierarchy1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger1;
+import org.apache.log4j.Priority;
+import org.apache.log4j.PropertyConfigurator1;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RootLogger1;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author clj
+ * 按log4j.properties的配置(log4j自带的appender + threshold)检查Logger1跳过没有appender接受的日志
+ */
+class Logger1ThresholdTest {
+
+    @TempDir
+    File dir;
+
+    private Hierarchy1 hierarchy;
+
+    @BeforeEach
+    void configure() throws Exception {
+        Properties props = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/log4j.properties")) {
+            props.load(in);
+        }
+        // 文件写到临时目录; console开启配置中注释掉的threshold=ERROR, 并换成记录doAppend次数的appender
+        props.setProperty("log4j.appender.rollingFile.file", new File(dir, "myLog.log").getPath());
+        props.setProperty("log4j.appender.errorDailyFile.file", new File(dir, "error.log").getPath());
+        props.setProperty("log4j.appender.myDailyFile.file", new File(dir, "myError.log").getPath());
+        props.setProperty("log4j.appender.console", CountingAppender.class.getName());
+        props.setProperty("log4j.appender.console.Threshold", "ERROR");
+        hierarchy = new Hierarchy1(new RootLogger1(Level.DEBUG));
+        new PropertyConfigurator1().doConfigure(props, hierarchy);
+    }
+
+    @AfterEach
+    void shutdown() {
+        hierarchy.shutdown();
+    }
+
+    @Test
+    void skipsLevelsRejectedByEveryJarAppender() throws Exception {
+        CountingLogger logger = (CountingLogger) hierarchy.getLogger(
+                "com.chenlongji.log4jstudy.service.OrderService", CountingLogger::new);
+
+        // com.chenlongji=info,console,myDailyFile: 级别开启, 但两个appender的threshold都是ERROR, 不创建日志事件
+        logger.info("info 0");
+        assertEquals(0, logger.events.get());
+
+        logger.error("error 1");
+        assertEquals(1, logger.events.get());
+
+        // 直接修改log4j自带appender的threshold, 下一条日志即生效
+        ((AppenderSkeleton) hierarchy.getLogger("com.chenlongji").getAppender("myDailyFile")).setThreshold(Level.INFO);
+        logger.info("info 2");
+        assertEquals(2, logger.events.get());
+
+        String written = new String(Files.readAllBytes(new File(dir, "myError.log").toPath()), "UTF-8");
+        assertTrue(written.contains("error 1"));
+        assertTrue(written.contains("info 2"));
+        assertFalse(written.contains("info 0"));
+    }
+
+    @Test
+    void jarAppenderBelowThresholdIsNotCalled() {
+        Logger1 logger = (Logger1) hierarchy.getLogger("com.chenlongji.log4jstudy.service.OrderService");
+        Logger1 parent = (Logger1) hierarchy.getLogger("com.chenlongji");
+        CountingAppender console = (CountingAppender) parent.getAppender("console");
+        ((AppenderSkeleton) parent.getAppender("myDailyFile")).setThreshold(Level.INFO);
+
+        // myDailyFile接受INFO, console(threshold=ERROR)不应进入doAppend
+        logger.info("info");
+        assertEquals(0, console.calls.get());
+
+        logger.error("error");
+        assertEquals(1, console.calls.get());
+    }
+
+    /**
+     * 记录doAppend调用次数的log4j自带类型的appender
+     */
+    public static class CountingAppender extends AppenderSkeleton {
+        final AtomicInteger calls = new AtomicInteger();
+
+        public void doAppend(LoggingEvent event) {
+            calls.incrementAndGet();
+            super.doAppend(event);
+        }
+
+        protected void append(LoggingEvent event) {
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public boolean requiresLayout() {
+            return true;
+        }
+    }
+
+    /**
+     * 记录创建日志事件(forcedLog)的次数
+     */
+    static class CountingLogger extends Logger1 {
+        final AtomicInteger events = new AtomicInteger();
+
+        CountingLogger(String name) {
+            super(name);
+        }
+
+        protected void forcedLog(String fqcn, Priority level, Object message, Throwable t) {
+            events.incrementAndGet();
+            super.forcedLog(fqcn, level, message, t);
+        }
+    }
+}
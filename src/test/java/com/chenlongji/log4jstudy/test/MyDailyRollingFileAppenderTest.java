@@ -0,0 +1,53 @@
+package com.chenlongji.log4jstudy.test;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author clj
+ * 通过properties配置MyDailyRollingFileAppender, 检查各配置项都能被PropertyConfigurator设置
+ */
+class MyDailyRollingFileAppenderTest {
+
+    @TempDir
+    File dir;
+
+    @AfterEach
+    void reset() {
+        LogManager.resetConfiguration();
+    }
+
+    @Test
+    void configuredFromProperties() {
+        Properties props = new Properties();
+        props.setProperty("log4j.rootLogger", "INFO, R");
+        props.setProperty("log4j.appender.R", MyDailyRollingFileAppender.class.getName());
+        props.setProperty("log4j.appender.R.File", new File(dir, "app.log").getPath());
+        props.setProperty("log4j.appender.R.DatePattern", "'.'yyyy-MM-dd");
+        props.setProperty("log4j.appender.R.MaxBackupIndex", "7");
+        props.setProperty("log4j.appender.R.MaxTotalSize", "10MB");
+        props.setProperty("log4j.appender.R.MaxBackupAge", "12h");
+        props.setProperty("log4j.appender.R.Compress", "true");
+        props.setProperty("log4j.appender.R.layout", "org.apache.log4j.PatternLayout");
+        PropertyConfigurator.configure(props);
+
+        MyDailyRollingFileAppender appender = (MyDailyRollingFileAppender) Logger.getRootLogger().getAppender("R");
+        assertNotNull(appender);
+        assertEquals("'.'yyyy-MM-dd", appender.getDatePattern());
+        assertEquals(7, appender.getMaxBackupIndex());
+        assertEquals(10L * 1024 * 1024, appender.getMaximumTotalSize());
+        assertEquals(12L * 60 * 60 * 1000, appender.getMaximumBackupAge());
+        assertTrue(appender.getCompress());
+    }
+}
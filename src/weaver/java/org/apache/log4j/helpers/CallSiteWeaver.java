@@ -0,0 +1,184 @@
+package org.apache.log4j.helpers;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 构建期的字节码改写工具: 把已编译的class中logger.trace/debug/info/warn/error/fatal的调用
+ * 改写为{@link LocatedLogCalls}中的静态方法, 并通过invokedynamic传入该调用处的位置(类、方法、文件、行号).
+ *
+ * <p>源码单独放在src/weaver/java, 只有location-weaving profile编译它并引入asm依赖, 应用本身不依赖asm.
+ * 由该profile在process-classes阶段执行:
+ * <pre>
+ * mvn -Plocation-weaving package
+ * </pre>
+ * 参数: [class目录] [要改写的包路径前缀, 多个用逗号分隔, 默认com/chenlongji/]
+ *
+ * <p>只改写第一个参数为Object(以及可选的Throwable)的调用; 其他调用以及不在指定包中的代码不受影响,
+ * 仍由{@link LocationCapture}在运行时获取位置. 改写后的调用不会再被匹配, 重复执行是安全的.
+ *
+ * @author clj
+ */
+public class CallSiteWeaver {
+
+    private static final String CATEGORY = "org/apache/log4j/Category";
+    private static final String LOGGER = "org/apache/log4j/Logger";
+    private static final String LOCATED_CALLS = "org/apache/log4j/helpers/LocatedLogCalls";
+    private static final String LOCATION_INFO_DESC = "Lorg/apache/log4j/spi/LocationInfo;";
+
+    private static final String MESSAGE_DESC = "(Ljava/lang/Object;)V";
+    private static final String MESSAGE_THROWABLE_DESC = "(Ljava/lang/Object;Ljava/lang/Throwable;)V";
+
+    private static final Set LEVEL_METHODS = new HashSet(
+            Arrays.asList(new String[]{"trace", "debug", "info", "warn", "error", "fatal"}));
+
+    private static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            "org/apache/log4j/helpers/CallSiteLocation", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                    + "Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;",
+            false);
+
+    private int rewrittenCalls;
+    private int rewrittenClasses;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + CallSiteWeaver.class.getName() + " <classesDir> [packagePrefixes]");
+            System.exit(1);
+        }
+        File classesDir = new File(args[0]);
+        String[] prefixes = (args.length > 1 ? args[1] : "com/chenlongji/").split(",");
+
+        CallSiteWeaver weaver = new CallSiteWeaver();
+        for (int i = 0; i < prefixes.length; i++) {
+            weaver.weaveDirectory(new File(classesDir, prefixes[i].trim()));
+        }
+        System.out.println("CallSiteWeaver: rewrote " + weaver.rewrittenCalls + " logging calls in "
+                + weaver.rewrittenClasses + " classes under " + classesDir);
+    }
+
+    private void weaveDirectory(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            File f = files[i];
+            if (f.isDirectory()) {
+                weaveDirectory(f);
+            } else if (f.getName().endsWith(".class")) {
+                byte[] woven = weave(Files.readAllBytes(f.toPath()));
+                if (woven != null) {
+                    Files.write(f.toPath(), woven);
+                }
+            }
+        }
+    }
+
+    /**
+     * 改写一个class文件, 没有需要改写的调用时返回null
+     */
+    public byte[] weave(byte[] classFile) {
+        ClassReader reader = new ClassReader(classFile);
+        // 只在原有指令之间插入一条invokedynamic, 不改变控制流, 栈帧不需要重新计算
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        WeavingClassVisitor visitor = new WeavingClassVisitor(writer);
+        reader.accept(visitor, 0);
+        if (visitor.calls == 0) {
+            return null;
+        }
+        rewrittenCalls += visitor.calls;
+        rewrittenClasses++;
+        return writer.toByteArray();
+    }
+
+    private static class WeavingClassVisitor extends ClassVisitor {
+        String className;
+        String sourceFile = "";
+        boolean supportsIndy;
+        int calls;
+
+        WeavingClassVisitor(ClassVisitor cv) {
+            super(Opcodes.ASM9, cv);
+        }
+
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            className = name.replace('/', '.');
+            // invokedynamic需要class文件版本不低于Java 7
+            supportsIndy = (version & 0xFFFF) >= Opcodes.V1_7;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        public void visitSource(String source, String debug) {
+            if (source != null) {
+                sourceFile = source;
+            }
+            super.visitSource(source, debug);
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (!supportsIndy || mv == null) {
+                return mv;
+            }
+            return new WeavingMethodVisitor(mv, this, name);
+        }
+    }
+
+    private static class WeavingMethodVisitor extends MethodVisitor {
+        private final WeavingClassVisitor owner;
+        private final String methodName;
+        private int line = -1;
+
+        WeavingMethodVisitor(MethodVisitor mv, WeavingClassVisitor owner, String methodName) {
+            super(Opcodes.ASM9, mv);
+            this.owner = owner;
+            this.methodName = methodName;
+        }
+
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+            super.visitLineNumber(line, start);
+        }
+
+        public void visitMethodInsn(int opcode, String ownerClass, String name, String descriptor,
+                                    boolean isInterface) {
+            if (opcode == Opcodes.INVOKEVIRTUAL && isLevelCall(ownerClass, name, descriptor)) {
+                // 参数已经在栈上, 再压入调用位置, 然后调用LocatedLogCalls中的同名静态方法
+                super.visitInvokeDynamicInsn("location", "()" + LOCATION_INFO_DESC, BOOTSTRAP,
+                        new Object[]{owner.className, methodName, owner.sourceFile, Integer.valueOf(line)});
+                String receiver = "trace".equals(name) ? LOGGER : CATEGORY;
+                String staticDesc = "(L" + receiver + ";" + descriptor.substring(1, descriptor.length() - 2)
+                        + LOCATION_INFO_DESC + ")V";
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, LOCATED_CALLS, name, staticDesc, false);
+                owner.calls++;
+                return;
+            }
+            super.visitMethodInsn(opcode, ownerClass, name, descriptor, isInterface);
+        }
+
+        private static boolean isLevelCall(String ownerClass, String name, String descriptor) {
+            if (!LOGGER.equals(ownerClass) && !CATEGORY.equals(ownerClass)) {
+                return false;
+            }
+            if (!LEVEL_METHODS.contains(name)) {
+                return false;
+            }
+            return MESSAGE_DESC.equals(descriptor) || MESSAGE_THROWABLE_DESC.equals(descriptor);
+        }
+    }
+}